@@ -55,6 +55,7 @@ public class MSToolsProject extends AbstractProjectComponent {
                     // get project root dir and check if this is an Android project
                     //if (AndroidStudioHelper.isAndroidGradleModule(myProject.getBaseDir())) {
                     if (isAndroidProject()) {
+                        ProjectWarmUp.start(myProject);
                         createActivityTemplates();
                     }
 
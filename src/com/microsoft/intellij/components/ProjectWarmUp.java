@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.components;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.ide.PowerSaveMode;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.microsoft.intellij.helpers.activityConfiguration.azureCustomWizardParameter.MobileServiceCache;
+import com.microsoft.intellij.helpers.o365.Office365Manager;
+import com.microsoft.intellij.helpers.o365.Office365ManagerImpl;
+import com.microsoft.intellij.helpers.o365.RequestLane;
+import com.microsoft.tooling.msservices.components.DefaultLoader;
+import com.microsoft.tooling.msservices.helpers.azure.AzureManager;
+import com.microsoft.tooling.msservices.helpers.azure.AzureManagerImpl;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// opt-in through ENABLED; only uses sessions already signed in, so it never asks anyone to sign in
+public class ProjectWarmUp {
+    public static final String ENABLED = "com.microsoft.intellij.WarmUpOnProjectOpen";
+
+    private static final long STARTUP_DELAY_SECONDS = 10;
+    private static final long BUSY_DELAY_SECONDS = 30;
+    private static final int MAX_ATTEMPTS = 20;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setPriority(Thread.MIN_PRIORITY)
+                    .setNameFormat("ms-services-warm-up-%d")
+                    .build());
+
+    public static void start(@NotNull Project project) {
+        if (isEnabled()) {
+            schedule(project, STARTUP_DELAY_SECONDS, 1);
+        }
+    }
+
+    private static boolean isEnabled() {
+        return Boolean.parseBoolean(DefaultLoader.getIdeHelper().getProperty(ENABLED));
+    }
+
+    private static void schedule(@NotNull final Project project, long delaySeconds, final int attempt) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (project.isDisposed()) {
+                    return;
+                }
+
+                if (PowerSaveMode.isEnabled() || DumbService.getInstance(project).isDumb()) {
+                    // the wizards fetch everything themselves anyway, so past a point there's no use waiting
+                    if (attempt < MAX_ATTEMPTS) {
+                        schedule(project, BUSY_DELAY_SECONDS, attempt + 1);
+                    }
+
+                    return;
+                }
+
+                RequestLane.BACKGROUND.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmUp(project);
+                    }
+                });
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private static void warmUp(@NotNull Project project) {
+        try {
+            Office365Manager office365Manager = Office365ManagerImpl.getManager();
+
+            // a token that has expired or is about to would be renewed, and a renewal may prompt
+            if (office365Manager.hasUsableToken()) {
+                // both are cached by the manager as they complete; nobody needs to wait on them here
+                office365Manager.getApplicationForProject(project);
+                office365Manager.getServicePrincipalsForO365();
+            }
+        } catch (Throwable ignored) {
+        }
+
+        try {
+            AzureManager azureManager = AzureManagerImpl.getManager();
+
+            if (azureManager.authenticated() || azureManager.usingCertificate()) {
+                MobileServiceCache.getListing(false);
+            }
+        } catch (Throwable ignored) {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.activityConfiguration.azureCustomWizardParameter;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.microsoft.tooling.msservices.helpers.azure.AzureCmdException;
+import com.microsoft.tooling.msservices.helpers.azure.AzureManager;
+import com.microsoft.tooling.msservices.helpers.auth.UserInfo;
+import com.microsoft.tooling.msservices.helpers.azure.AzureManagerImpl;
+import com.microsoft.tooling.msservices.model.Subscription;
+import com.microsoft.tooling.msservices.model.ms.MobileService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// a listing takes a call per subscription, so it's kept for a few minutes and shared
+public class MobileServiceCache {
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    public static class Listing {
+        private final List<Subscription> subscriptions;
+        private final List<MobileService> mobileServices;
+        private final String account;
+        private final long loadedAt;
+
+        private Listing(@NotNull List<Subscription> subscriptions,
+                        @NotNull List<MobileService> mobileServices,
+                        @NotNull String account) {
+            this.subscriptions = subscriptions;
+            this.mobileServices = mobileServices;
+            this.account = account;
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        @NotNull
+        public List<Subscription> getSubscriptions() {
+            return subscriptions;
+        }
+
+        @NotNull
+        public List<MobileService> getMobileServices() {
+            return mobileServices;
+        }
+
+        private boolean isFreshFor(@NotNull String account) {
+            return this.account.equals(account) && System.currentTimeMillis() - loadedAt < TTL_MILLIS;
+        }
+    }
+
+    private static final AtomicReference<Listing> listing = new AtomicReference<Listing>();
+
+    @NotNull
+    public static Listing getListing(boolean refresh) throws AzureCmdException {
+        // the selected subscriptions are known locally, so whether the account changed is cheap to tell
+        AzureManager manager = AzureManagerImpl.getManager();
+        List<Subscription> subscriptions = manager.getSubscriptionList();
+        String account = getAccount(manager.getUserInfo(), subscriptions);
+
+        Listing current = listing.get();
+        if (!refresh && current != null && current.isFreshFor(account)) {
+            return current;
+        }
+
+        ImmutableList.Builder<MobileService> mobileServices = ImmutableList.builder();
+
+        for (Subscription subscription : subscriptions) {
+            mobileServices.addAll(manager.getMobileServiceList(subscription.getId()));
+        }
+
+        Listing loaded = new Listing(ImmutableList.copyOf(subscriptions), mobileServices.build(), account);
+
+        // without subscriptions there is nothing worth keeping; signing in shouldn't have to wait it out
+        listing.set(subscriptions.isEmpty() ? null : loaded);
+        return loaded;
+    }
+
+    // identifies who the listing is for: the signed in user, if any, and the selected subscriptions along with
+    // the management certificates they are reached with, which change when another settings file is imported
+    @NotNull
+    private static String getAccount(UserInfo userInfo, @NotNull List<Subscription> subscriptions) {
+        Hasher hasher = Hashing.sha1().newHasher().putBoolean(userInfo != null);
+
+        if (userInfo != null) {
+            hasher.putString(String.valueOf(userInfo.getTenantId()), Charsets.UTF_8).putChar('\n');
+            hasher.putString(String.valueOf(userInfo.getUniqueName()), Charsets.UTF_8).putChar('\n');
+        }
+
+        for (Subscription subscription : subscriptions) {
+            hasher.putString(String.valueOf(subscription.getId()), Charsets.UTF_8).putChar('\n');
+            hasher.putString(String.valueOf(subscription.getManagementCertificate()), Charsets.UTF_8).putChar('\n');
+        }
+
+        return hasher.hash().toString();
+    }
+}
@@ -119,7 +119,7 @@ public class MobileServiceConfigForm extends DialogWrapper {
                         ApplicationManager.getApplication().invokeLater(new Runnable() {
                             @Override
                             public void run() {
-                                fillList();
+                                fillList(true);
                             }
                         });
                     }
@@ -131,7 +131,7 @@ public class MobileServiceConfigForm extends DialogWrapper {
 
         init();
 
-        fillList();
+        fillList(false);
     }
 
 
@@ -155,7 +155,7 @@ public class MobileServiceConfigForm extends DialogWrapper {
 
                 mobileServices.setModel(messageTableModel);
             } else {
-                fillList();
+                fillList(true);
             }
         } catch (AzureCmdException e) {
             final ReadOnlyCellTableModel messageTableModel = new ReadOnlyCellTableModel();
@@ -184,7 +184,7 @@ public class MobileServiceConfigForm extends DialogWrapper {
                 + "complete set up.</p> </body> </html>");
     }
 
-    private void fillList() {
+    private void fillList(final boolean refresh) {
 
         getOKAction().setEnabled(false);
         mobileServiceList = new ArrayList<MobileService>();
@@ -205,15 +205,15 @@ public class MobileServiceConfigForm extends DialogWrapper {
 
                 try {
 
-                    final List<MobileService> currentSubServices = new ArrayList<MobileService>();
-                    final List<Subscription> subscriptionList = AzureManagerImpl.getManager().getSubscriptionList();
+                    MobileServiceCache.Listing listing = MobileServiceCache.getListing(refresh);
+                    final List<MobileService> currentSubServices = listing.getMobileServices();
+                    final List<Subscription> subscriptionList = listing.getSubscriptions();
                     final HashMap<String, String> subscriptionData = new HashMap<String, String>();
 
                     if (subscriptionList.size() > 0) {
 
                         for (Subscription s : subscriptionList) {
                             subscriptionData.put(s.getId(), s.getName());
-                            currentSubServices.addAll(AzureManagerImpl.getManager().getMobileServiceList(s.getId()));
                         }
 
 
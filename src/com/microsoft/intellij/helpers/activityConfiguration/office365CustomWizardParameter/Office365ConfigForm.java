@@ -24,9 +24,11 @@ package com.microsoft.intellij.helpers.activityConfiguration.office365CustomWiza
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.project.Project;
@@ -36,13 +38,16 @@ import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.table.JBTable;
 import com.jgoodies.forms.layout.CellConstraints;
 import com.jgoodies.forms.layout.FormLayout;
-import com.microsoft.directoryservices.Application;
 import com.microsoft.intellij.forms.CreateOffice365ApplicationForm;
 import com.microsoft.intellij.forms.PermissionsEditorForm;
 import com.microsoft.intellij.helpers.ReadOnlyCellTableModel;
 import com.microsoft.intellij.helpers.graph.ServicePermissionEntry;
+import com.microsoft.intellij.helpers.o365.ApplicationSummary;
+import com.microsoft.intellij.helpers.o365.Deadline;
 import com.microsoft.intellij.helpers.o365.Office365Manager;
 import com.microsoft.intellij.helpers.o365.Office365ManagerImpl;
+import com.microsoft.intellij.helpers.o365.PageCallback;
+import com.microsoft.intellij.helpers.o365.RequestLane;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
 import com.microsoft.tooling.msservices.helpers.StringHelper;
 import com.microsoft.tooling.msservices.model.Office365Permission;
@@ -52,6 +57,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
@@ -61,16 +68,41 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Office365ConfigForm extends DialogWrapper {
+    private static final int SEARCH_DELAY_MILLIS = 300;
+    private static final int SEARCH_RESULT_COUNT = 50;
+
+    // how long a search or the permissions of the selected app may keep the user waiting
+    private static final long SEARCH_DEADLINE_SECONDS = 15;
+    private static final long PERMISSIONS_DEADLINE_SECONDS = 30;
 
     private JPanel rootPanel;
+    private JTextField txtSearch;
     private JComboBox cmbApps;
     private JTable tblAppPermissions;
     private JButton btnAddApp;
     private JButton btnSignOut;
     private JEditorPane editorSummary;
 
+    // the full list of apps, which is what the combo box shows whenever there is no search going on; the
+    // search state is only ever touched on the event dispatch thread
+    private DefaultComboBoxModel listModel;
+    private Timer searchTimer;
+    private ListenableFuture<List<ApplicationSummary>> searchFuture;
+
+    // only the permissions of the latest selection are shown; every selection gets a sequence number and
+    // supersedes, and cancels, whatever was being loaded for the ones before it
+    private final AtomicInteger permissionsSequence = new AtomicInteger();
+    private final AtomicReference<ListenableFuture<?>> permissionsFuture = new AtomicReference<ListenableFuture<?>>();
+
+    private final AtomicReference<ListenableFuture<?>> appsFuture = new AtomicReference<ListenableFuture<?>>();
+    private volatile boolean disposed;
+
     public Office365ConfigForm(final Project project, boolean isListServices, boolean isFileServices, boolean isOutlookServices) {
         super(project, true);
 
@@ -85,11 +117,37 @@ public class Office365ConfigForm extends DialogWrapper {
         this.cmbApps.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                Application app = (Application) cmbApps.getSelectedItem();
+                ApplicationSummary app = (ApplicationSummary) cmbApps.getSelectedItem();
                 refreshPermissions(app);
             }
         });
 
+        // searches are only sent once the user stops typing for a moment
+        searchTimer = new Timer(SEARCH_DELAY_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                searchApps(txtSearch.getText().trim());
+            }
+        });
+        searchTimer.setRepeats(false);
+
+        txtSearch.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent documentEvent) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent documentEvent) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent documentEvent) {
+                searchTimer.restart();
+            }
+        });
+
         btnAddApp.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent actionEvent) {
@@ -124,8 +182,21 @@ public class Office365ConfigForm extends DialogWrapper {
         init();
     }
 
-    public Application getApplication() {
-        return (Application) cmbApps.getSelectedItem();
+    public ApplicationSummary getApplication() {
+        return (ApplicationSummary) cmbApps.getSelectedItem();
+    }
+
+    @Override
+    protected void dispose() {
+        // nothing that is still on its way is of any use once the dialog is gone
+        disposed = true;
+        permissionsSequence.incrementAndGet();
+        cancel(permissionsFuture.getAndSet(null));
+        cancel(appsFuture.getAndSet(null));
+        searchTimer.stop();
+        cancelSearch();
+
+        super.dispose();
     }
 
     @Nullable
@@ -178,6 +249,12 @@ public class Office365ConfigForm extends DialogWrapper {
         ApplicationManager.getApplication().invokeAndWait(new Runnable() {
             @Override
             public void run() {
+                // a refresh starts over from the full list
+                txtSearch.setText("");
+                searchTimer.stop();
+                cancelSearch();
+                listModel = null;
+
                 cmbApps.setRenderer(new StringComboBoxItemRenderer());
                 cmbApps.setModel(new DefaultComboBoxModel(new String[]{"(loading...)"}));
                 cmbApps.setEnabled(false);
@@ -211,61 +288,94 @@ public class Office365ConfigForm extends DialogWrapper {
                 }
             }
 
-            Futures.addCallback(manager.getApplicationList(), new FutureCallback<List<Application>>() {
+            // show what we saved the last time right away and swap in the list once it has caught up with
+            // whatever changed in the directory since
+            final List<ApplicationSummary> cachedApps = manager.getCachedApplicationSummaries();
+            if (cachedApps != null && !cachedApps.isEmpty()) {
+                // what showApps selects in the cached list
+                final String shownAppId = findApp(cachedApps, selectedAppId) != null
+                        ? selectedAppId
+                        : cachedApps.get(0).getAppId();
+
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        addApps(new DefaultComboBoxModel(), cachedApps, selectedAppId);
+                    }
+                }, ModalityState.any());
+
+                ListenableFuture<List<ApplicationSummary>> refreshFuture = manager.refreshApplicationSummaries();
+                trackAppsFuture(refreshFuture);
+
+                Futures.addCallback(refreshFuture, new FutureCallback<List<ApplicationSummary>>() {
+                    @Override
+                    public void onSuccess(final List<ApplicationSummary> applications) {
+                        ApplicationManager.getApplication().invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (applications.isEmpty()) {
+                                    if (!isSearching()) {
+                                        showNoApps();
+                                    }
+                                    return;
+                                }
+
+                                // the app we were asked to select wins unless the user picked another one from
+                                // the cached list while we were loading
+                                String appId = getSelectedAppId();
+                                if ((appId == null || appId.equals(shownAppId)) && findApp(applications, selectedAppId) != null) {
+                                    appId = selectedAppId;
+                                }
+
+                                addApps(new DefaultComboBoxModel(), applications, appId);
+                            }
+                        }, ModalityState.any());
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        showFetchAppsError(throwable);
+                    }
+                });
+
+                return;
+            }
+
+            // the combo box is populated page by page as the applications arrive
+            final DefaultComboBoxModel appsModel = new DefaultComboBoxModel();
+
+            PageCallback<ApplicationSummary> pageCallback = new PageCallback<ApplicationSummary>() {
                 @Override
-                public void onSuccess(final List<Application> applications) {
+                public void onPage(@NotNull final List<ApplicationSummary> applications) {
                     ApplicationManager.getApplication().invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            if (applications.size() > 0) {
-                                cmbApps.setRenderer(new ListCellRendererWrapper<Application>() {
-                                    @Override
-                                    public void customize(JList jList, Application application, int i, boolean b, boolean b2) {
-                                        setText(application.getdisplayName());
-                                    }
-                                });
-
-                                cmbApps.setModel(new DefaultComboBoxModel(applications.toArray()));
-                                cmbApps.setEnabled(true);
-
-                                int selectedIndex = 0;
-                                if (!StringHelper.isNullOrWhiteSpace(selectedAppId)) {
-                                    selectedIndex = Iterables.indexOf(applications, new Predicate<Application>() {
-                                        @Override
-                                        public boolean apply(Application application) {
-                                            return application.getappId().equals(selectedAppId);
-                                        }
-                                    });
-                                }
-                                cmbApps.setSelectedIndex(Math.max(0, selectedIndex));
-                            } else {
-                                cmbApps.setRenderer(new StringComboBoxItemRenderer());
-                                cmbApps.setModel(new DefaultComboBoxModel(new String[]{"No apps configured)"}));
-                                cmbApps.setEnabled(false);
-
-                                ReadOnlyCellTableModel messageTableModel = new ReadOnlyCellTableModel();
-                                messageTableModel.addColumn("Message");
-                                Vector<String> vector = new Vector<String>();
-                                vector.add("There are no applications configured.");
-                                messageTableModel.addRow(vector);
-                                tblAppPermissions.setModel(messageTableModel);
-                                //tblAppPermissions.setEnabled(false);
-                            }
+                            addApps(appsModel, applications, selectedAppId);
                         }
                     }, ModalityState.any());
                 }
+            };
 
+            ListenableFuture<Integer> pagesFuture = manager.getApplicationSummaryPages(pageCallback);
+            trackAppsFuture(pagesFuture);
+
+            Futures.addCallback(pagesFuture, new FutureCallback<Integer>() {
                 @Override
-                public void onFailure(final Throwable throwable) {
-                    ApplicationManager.getApplication().invokeAndWait(new Runnable() {
+                public void onSuccess(final Integer count) {
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            DefaultLoader.getUIHelper().showException("An error occurred while attempting to fetch the " +
-                                            "list of applications.", throwable,
-                                    "Microsoft Cloud Services For Android - Error Fetching Applications", false, true);
+                            if (count == 0 && !isSearching()) {
+                                showNoApps();
+                            }
                         }
                     }, ModalityState.any());
                 }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    showFetchAppsError(throwable);
+                }
             });
         } catch (Throwable throwable) {
             DefaultLoader.getUIHelper().showException("An error occurred while attempting to authenticate with Office 365.", throwable,
@@ -273,11 +383,188 @@ public class Office365ConfigForm extends DialogWrapper {
         }
     }
 
-    private void fillPermissions(@NotNull Application app) {
+    private void showNoApps() {
+        cmbApps.setRenderer(new StringComboBoxItemRenderer());
+        cmbApps.setModel(new DefaultComboBoxModel(new String[]{"No apps configured)"}));
+        cmbApps.setEnabled(false);
+
+        ReadOnlyCellTableModel messageTableModel = new ReadOnlyCellTableModel();
+        messageTableModel.addColumn("Message");
+        Vector<String> vector = new Vector<String>();
+        vector.add("There are no applications configured.");
+        messageTableModel.addRow(vector);
+        tblAppPermissions.setModel(messageTableModel);
+        //tblAppPermissions.setEnabled(false);
+    }
+
+    private void showFetchAppsError(@NotNull final Throwable throwable) {
+        if (throwable instanceof CancellationException) {
+            return;
+        }
+
+        ApplicationManager.getApplication().invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                DefaultLoader.getUIHelper().showException("An error occurred while attempting to fetch the " +
+                                "list of applications.", throwable,
+                        "Microsoft Cloud Services For Android - Error Fetching Applications", false, true);
+            }
+        }, ModalityState.any());
+    }
+
+    private void addApps(@NotNull DefaultComboBoxModel appsModel,
+                         @NotNull List<ApplicationSummary> applications,
+                         @Nullable final String selectedAppId) {
+        if (applications.isEmpty()) {
+            return;
+        }
+
+        boolean isAttached = cmbApps.getModel() == appsModel;
+
+        // when this is the first page the model is filled before attaching it so that we select an app exactly once
+        for (ApplicationSummary application : applications) {
+            appsModel.addElement(application);
+        }
+
+        listModel = appsModel;
+
+        // while the user is searching the list is only kept up to date in the background
+        if (isSearching()) {
+            return;
+        }
+
+        if (!isAttached) {
+            showApps(appsModel, selectedAppId);
+        } else if (!StringHelper.isNullOrWhiteSpace(selectedAppId) && cmbApps.getSelectedIndex() == 0) {
+            // the app we were asked to select may only show up in a later page; we move the selection
+            // to it unless the user has already picked something other than the default first entry
+            ApplicationSummary selectedApp = findApp(applications, selectedAppId);
+
+            if (selectedApp != null) {
+                cmbApps.setSelectedItem(selectedApp);
+            }
+        }
+    }
+
+    @Nullable
+    private static ApplicationSummary findApp(@NotNull List<ApplicationSummary> applications, @Nullable final String appId) {
+        if (StringHelper.isNullOrWhiteSpace(appId)) {
+            return null;
+        }
+
+        return Iterables.find(applications, new Predicate<ApplicationSummary>() {
+            @Override
+            public boolean apply(ApplicationSummary application) {
+                return application.getAppId().equals(appId);
+            }
+        }, null);
+    }
+
+    private void showApps(@NotNull DefaultComboBoxModel appsModel, @Nullable String selectedAppId) {
+        cmbApps.setRenderer(new ListCellRendererWrapper<ApplicationSummary>() {
+            @Override
+            public void customize(JList jList, ApplicationSummary application, int i, boolean b, boolean b2) {
+                setText(application.getDisplayName());
+            }
+        });
+
+        cmbApps.setModel(appsModel);
+        cmbApps.setEnabled(true);
+
+        int selectedIndex = 0;
+        if (!StringHelper.isNullOrWhiteSpace(selectedAppId)) {
+            for (int i = 0; i < appsModel.getSize(); i++) {
+                if (((ApplicationSummary) appsModel.getElementAt(i)).getAppId().equals(selectedAppId)) {
+                    selectedIndex = i;
+                    break;
+                }
+            }
+        }
+        cmbApps.setSelectedIndex(selectedIndex);
+    }
+
+    private boolean isSearching() {
+        return !txtSearch.getText().trim().isEmpty();
+    }
+
+    @Nullable
+    private String getSelectedAppId() {
+        Object selectedItem = cmbApps.getSelectedItem();
+        return (selectedItem instanceof ApplicationSummary) ? ((ApplicationSummary) selectedItem).getAppId() : null;
+    }
+
+    private void cancelSearch() {
+        if (searchFuture != null) {
+            searchFuture.cancel(true);
+            searchFuture = null;
+        }
+    }
+
+    private void searchApps(@NotNull final String prefix) {
+        // whatever is still on its way for an earlier prefix is of no use anymore
+        cancelSearch();
+
+        if (prefix.isEmpty()) {
+            if (listModel != null) {
+                showApps(listModel, getSelectedAppId());
+            }
+            return;
+        }
+
+        final ListenableFuture<List<ApplicationSummary>> future = Deadline.after(SEARCH_DEADLINE_SECONDS, TimeUnit.SECONDS).within(
+                new Supplier<ListenableFuture<List<ApplicationSummary>>>() {
+                    @Override
+                    public ListenableFuture<List<ApplicationSummary>> get() {
+                        return Office365ManagerImpl.getManager().searchApplications(prefix, SEARCH_RESULT_COUNT);
+                    }
+                });
+        searchFuture = future;
+
+        Futures.addCallback(future, new FutureCallback<List<ApplicationSummary>>() {
+            @Override
+            public void onSuccess(final List<ApplicationSummary> applications) {
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a result that arrives after the user has moved on is dropped
+                        if (searchFuture != future) {
+                            return;
+                        }
+                        searchFuture = null;
+
+                        if (applications.isEmpty()) {
+                            cmbApps.setRenderer(new StringComboBoxItemRenderer());
+                            cmbApps.setModel(new DefaultComboBoxModel(new String[]{"(no matching apps)"}));
+                            cmbApps.setEnabled(false);
+                            return;
+                        }
+
+                        String selectedAppId = getSelectedAppId();
+                        showApps(new DefaultComboBoxModel(applications.toArray()), selectedAppId);
+                    }
+                }, ModalityState.any());
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                showFetchAppsError(throwable);
+            }
+        });
+    }
+
+    private void fillPermissions(@NotNull final ApplicationSummary app, final int sequence) {
+        if (sequence != permissionsSequence.get()) {
+            return;
+        }
+
         // show a status message while we're fetching permissions
         ApplicationManager.getApplication().invokeLater(new Runnable() {
             @Override
             public void run() {
+                if (sequence != permissionsSequence.get()) {
+                    return;
+                }
+
                 ReadOnlyCellTableModel messageTableModel = new ReadOnlyCellTableModel();
                 messageTableModel.addColumn("Message");
                 Vector<String> vector = new Vector<String>();
@@ -289,12 +576,31 @@ public class Office365ConfigForm extends DialogWrapper {
             }
         }, ModalityState.any());
 
-        Futures.addCallback(Office365ManagerImpl.getManager().getO365PermissionsForApp(app.getobjectId()), new FutureCallback<List<ServicePermissionEntry>>() {
+        ListenableFuture<List<ServicePermissionEntry>> future = Deadline.after(PERMISSIONS_DEADLINE_SECONDS, TimeUnit.SECONDS).within(
+                new Supplier<ListenableFuture<List<ServicePermissionEntry>>>() {
+                    @Override
+                    public ListenableFuture<List<ServicePermissionEntry>> get() {
+                        return Office365ManagerImpl.getManager().getO365PermissionsForApp(app.getObjectId());
+                    }
+                });
+        cancel(permissionsFuture.getAndSet(future));
+
+        // a later selection may have come in while we were starting this one and missed cancelling it
+        if (sequence != permissionsSequence.get()) {
+            future.cancel(true);
+            return;
+        }
+
+        Futures.addCallback(future, new FutureCallback<List<ServicePermissionEntry>>() {
             @Override
             public void onSuccess(final List<ServicePermissionEntry> servicePermissionEntries) {
                 ApplicationManager.getApplication().invokeLater(new Runnable() {
                     @Override
                     public void run() {
+                        if (sequence != permissionsSequence.get()) {
+                            return;
+                        }
+
                         if (servicePermissionEntries.size() > 0) {
                             tblAppPermissions.setModel(new AppPermissionsTM(servicePermissionEntries));
                             tblAppPermissions.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
@@ -316,6 +622,10 @@ public class Office365ConfigForm extends DialogWrapper {
 
             @Override
             public void onFailure(Throwable throwable) {
+                if (throwable instanceof CancellationException || sequence != permissionsSequence.get()) {
+                    return;
+                }
+
                 DefaultLoader.getUIHelper().showException("An error occurred while attempting to fetch permissions for " +
                                 "Office 365 services.", throwable,
                         "Microsoft Cloud Services For Android - Error Fetching Permissions", false, true);
@@ -323,24 +633,52 @@ public class Office365ConfigForm extends DialogWrapper {
         });
     }
 
+    // the dialog waits on these, so their requests go ahead of background work
     private void refreshApps(final String selectedAppId) {
         ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
             @Override
             public void run() {
-                fillApps(selectedAppId);
+                RequestLane.INTERACTIVE.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillApps(selectedAppId);
+                    }
+                });
             }
         });
     }
 
-    private void refreshPermissions(@NotNull final Application app) {
+    private void refreshPermissions(@NotNull final ApplicationSummary app) {
+        final int sequence = permissionsSequence.incrementAndGet();
+        cancel(permissionsFuture.getAndSet(null));
+
         ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
             @Override
             public void run() {
-                fillPermissions(app);
+                RequestLane.INTERACTIVE.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillPermissions(app, sequence);
+                    }
+                });
             }
         });
     }
 
+    private void trackAppsFuture(@NotNull ListenableFuture<?> future) {
+        cancel(appsFuture.getAndSet(future));
+
+        if (disposed) {
+            cancel(appsFuture.getAndSet(null));
+        }
+    }
+
+    private static void cancel(@Nullable ListenableFuture<?> future) {
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
     private void createUIComponents() {
         tblAppPermissions = new JBTable();
     }
@@ -28,7 +28,7 @@ import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.DataKeys;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogWrapper;
-import com.microsoft.directoryservices.Application;
+import com.microsoft.intellij.helpers.o365.ApplicationSummary;
 
 import javax.swing.*;
 import javax.swing.text.BadLocationException;
@@ -46,7 +46,7 @@ public class Office365ParameterPane extends JPanel {
     private JButton configureOneNoteButton;
     private JButton configureOffice365Button;
     private PlainDocument document;
-    private Application selectedApplication;
+    private ApplicationSummary selectedApplication;
     private String selectedClientID;
 
     public Office365ParameterPane() {
@@ -168,8 +168,8 @@ public class Office365ParameterPane extends JPanel {
                     fileServicesCheckBox.isSelected(),
                     outlookServicesCheckBox.isSelected(),
                     oneNoteCheckBox.isSelected(),
-                    isOffice365Selected ? selectedApplication.getappId() : null,
-                    isOffice365Selected ? selectedApplication.getdisplayName() : null,
+                    isOffice365Selected ? selectedApplication.getAppId() : null,
+                    isOffice365Selected ? selectedApplication.getDisplayName() : null,
                     oneNoteCheckBox.isSelected() ? selectedClientID : null);
 
             String stringVal = gson.toJson(office365Parameters);
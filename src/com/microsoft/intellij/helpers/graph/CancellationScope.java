@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.graph;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+// the odata engine doesn't pass a cancel on, so the transport futures started in call are cancelled here
+public class CancellationScope {
+    private static final ThreadLocal<List<Future<?>>> current = new ThreadLocal<List<Future<?>>>();
+
+    @NotNull
+    public static <V> ListenableFuture<V> call(@NotNull Supplier<ListenableFuture<V>> request) {
+        List<Future<?>> previous = current.get();
+        final List<Future<?>> started = new ArrayList<Future<?>>();
+        current.set(started);
+
+        final ListenableFuture<V> future;
+        try {
+            future = request.get();
+        } finally {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        }
+
+        if (!started.isEmpty()) {
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isCancelled()) {
+                        for (Future<?> transportFuture : started) {
+                            transportFuture.cancel(true);
+                        }
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        return future;
+    }
+
+    static void register(@NotNull Future<?> transportFuture) {
+        List<Future<?>> started = current.get();
+
+        if (started != null) {
+            started.add(transportFuture);
+        }
+    }
+}
@@ -22,15 +22,32 @@
 package com.microsoft.intellij.helpers.graph;
 
 import com.microsoft.services.odata.impl.desktop.JvmDependencyResolver;
+import com.microsoft.services.odata.interfaces.HttpTransport;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
 
 public class PluginDependencyResolver extends JvmDependencyResolver {
+    private static final HttpTransport TRANSPORT = new PluginHttpTransport();
+
+    // neither the plugin version nor the os change while the IDE runs
+    private static class UserAgentHolder {
+        private static final String USER_AGENT = createUserAgent();
+    }
+
     public PluginDependencyResolver(String token) {
         super(token);
     }
 
+    @Override
+    public HttpTransport getHttpTransport() {
+        return TRANSPORT;
+    }
+
     @Override
     public String getPlatformUserAgent(String productName) {
+        return UserAgentHolder.USER_AGENT;
+    }
+
+    private static String createUserAgent() {
         String version = DefaultLoader.getPluginComponent().getSettings().getPluginVersion();
         return String.format(
                 "%s/%s (lang=%s; os=%s; version=%s)",
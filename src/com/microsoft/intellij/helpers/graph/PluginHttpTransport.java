@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.graph;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.microsoft.intellij.helpers.o365.Office365ManagerSettings;
+import com.microsoft.services.odata.impl.http.BaseHttpTransport;
+import com.microsoft.services.odata.impl.http.EmptyResponse;
+import com.microsoft.services.odata.impl.http.NetworkRunnable;
+import com.microsoft.services.odata.impl.http.ResponseImpl;
+import com.microsoft.services.odata.interfaces.Request;
+import com.microsoft.services.odata.interfaces.Response;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// one pooled, keep-alive and compressing client shared by every PluginDependencyResolver
+public class PluginHttpTransport extends BaseHttpTransport {
+    private static class ClientHolder {
+        private static final CloseableHttpClient CLIENT = createClient();
+    }
+
+    private static class GraphRequest extends HttpEntityEnclosingRequestBase {
+        private final String method;
+
+        GraphRequest(@NotNull String method, @NotNull String uri) {
+            this.method = method;
+            setURI(URI.create(uri));
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    private static class PluginNetworkRunnable extends NetworkRunnable {
+        PluginNetworkRunnable(Request request, SettableFuture<Response> future) {
+            super(request, future);
+        }
+
+        @Override
+        public void run() {
+            final GraphRequest request = new GraphRequest(mRequest.getVerb().toString(), mRequest.getUrl().toString());
+
+            Map<String, String> headers = mRequest.getHeaders();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.addHeader(header.getKey(), header.getValue());
+            }
+
+            if (mRequest.getContent() != null) {
+                request.setEntity(new ByteArrayEntity(mRequest.getContent()));
+            }
+
+            // a cancelled request gives its connection up right away instead of reading on
+            mFuture.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (mFuture.isCancelled()) {
+                        request.abort();
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+
+            CloseableHttpResponse realResponse = null;
+
+            try {
+                realResponse = ClientHolder.CLIENT.execute(request);
+                int status = realResponse.getStatusLine().getStatusCode();
+
+                // the raw values; header elements would split HTTP dates on their commas
+                Map<String, List<String>> responseHeaders = new HashMap<String, List<String>>();
+                for (Header header : realResponse.getAllHeaders()) {
+                    List<String> headerValues = responseHeaders.get(header.getName());
+                    if (headerValues == null) {
+                        headerValues = new ArrayList<String>();
+                        responseHeaders.put(header.getName(), headerValues);
+                    }
+                    headerValues.add(header.getValue());
+                }
+
+                HttpEntity entity = realResponse.getEntity();
+                InputStream stream = entity != null ? entity.getContent() : null;
+
+                if (stream != null) {
+                    if (!mFuture.set(new ResponseImpl(stream, status, responseHeaders, release(realResponse)))) {
+                        close(realResponse);
+                    }
+                } else {
+                    close(realResponse);
+                    mFuture.set(new EmptyResponse(status, responseHeaders));
+                }
+            } catch (Throwable t) {
+                close(realResponse);
+                mFuture.setException(t);
+            }
+        }
+
+        // what is left of the body is read first so that the connection goes back to the pool
+        @NotNull
+        private static Closeable release(@NotNull final CloseableHttpResponse response) {
+            return new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        EntityUtils.consume(response.getEntity());
+                    } finally {
+                        response.close();
+                    }
+                }
+            };
+        }
+
+        private static void close(CloseableHttpResponse response) {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public ListenableFuture<Response> execute(Request request) {
+        ListenableFuture<Response> future = super.execute(request);
+        CancellationScope.register(future);
+        return future;
+    }
+
+    @Override
+    protected NetworkRunnable createNetworkRunnable(Request request, SettableFuture<Response> future) {
+        return new PluginNetworkRunnable(request, future);
+    }
+
+    @NotNull
+    private static CloseableHttpClient createClient() {
+        int maxConnections = Office365ManagerSettings.getMaxConnections();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Office365ManagerSettings.getConnectTimeoutMillis())
+                .setConnectionRequestTimeout(Office365ManagerSettings.getConnectTimeoutMillis())
+                .setSocketTimeout(Office365ManagerSettings.getReadTimeoutMillis())
+                .build();
+
+        // content compression is on by default
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(requestConfig)
+                .useSystemProperties()
+                .build();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.intellij.helpers.graph.CancellationScope;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// requests past a full queue fail right away, as callers are often network or ui threads that mustn't block
+public class BoundedRequestExecutor {
+    private final int maxConcurrentRequests;
+    private final int queueCapacity;
+
+    // queued requests are started from a thread of our own instead of on the network thread of whichever
+    // request happened to complete
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-request-dispatcher-%d").build());
+
+    private final Queue<Runnable> queue = new LinkedList<Runnable>();
+    private int activeCount;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public BoundedRequestExecutor(int maxConcurrentRequests, int queueCapacity) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+        }
+
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.queueCapacity = Math.max(0, queueCapacity);
+    }
+
+    @NotNull
+    public <V> ListenableFuture<V> submit(@NotNull final Supplier<ListenableFuture<V>> request) {
+        final SettableFuture<V> result = SettableFuture.create();
+
+        final Runnable start = new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    release();
+                    return;
+                }
+
+                ListenableFuture<V> future;
+
+                try {
+                    future = CancellationScope.call(request);
+                } catch (Throwable throwable) {
+                    release();
+                    result.setException(throwable);
+                    return;
+                }
+
+                FutureHelper.propagateCancellation(result, future);
+
+                Futures.addCallback(future, new FutureCallback<V>() {
+                    @Override
+                    public void onSuccess(V value) {
+                        release();
+                        result.set(value);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        release();
+                        result.setException(throwable);
+                    }
+                });
+            }
+        };
+
+        synchronized (this) {
+            if (activeCount >= maxConcurrentRequests) {
+                if (queue.size() >= queueCapacity) {
+                    rejectedCount.incrementAndGet();
+                    return Futures.immediateFailedFuture(new RejectedExecutionException(
+                            "Too many pending directory requests; " + queue.size() + " are already waiting"));
+                }
+
+                queue.add(start);
+
+                // a request cancelled while it waits gives up its place in line
+                result.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result.isCancelled()) {
+                            synchronized (BoundedRequestExecutor.this) {
+                                queue.remove(start);
+                            }
+                        }
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+
+                return result;
+            }
+
+            activeCount++;
+        }
+
+        start.run();
+        return result;
+    }
+
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    // only once nothing more will be submitted; an executor living as long as the ide never needs to
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    private void release() {
+        final Runnable next;
+
+        synchronized (this) {
+            next = queue.poll();
+
+            // the slot of the request that just completed passes straight on to the next one in line
+            if (next == null) {
+                activeCount--;
+                return;
+            }
+        }
+
+        dispatcher.execute(next);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.microsoft.directoryservices.Application;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+// one application failing doesn't keep the others from being updated
+public class BulkPermissionResult {
+    private final Map<String, Application> updated;
+    private final Map<String, Throwable> failed;
+
+    public BulkPermissionResult(@NotNull Map<String, Application> updated, @NotNull Map<String, Throwable> failed) {
+        this.updated = Collections.unmodifiableMap(updated);
+        this.failed = Collections.unmodifiableMap(failed);
+    }
+
+    // including the applications that already had the permissions
+    @NotNull
+    public Map<String, Application> getUpdated() {
+        return updated;
+    }
+
+    @NotNull
+    public Map<String, Throwable> getFailed() {
+        return failed;
+    }
+
+    public boolean isComplete() {
+        return failed.isEmpty();
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// filtered reads have no etags, so an expired value is kept if the payload read again is the same
+public class CachedFuture<V> {
+    public interface Loader<V> {
+        @NotNull
+        ListenableFuture<String> load();
+
+        @NotNull
+        V materialize(@NotNull String payload) throws Throwable;
+    }
+
+    private static class Entry<V> {
+        private ListenableFuture<V> future;
+        private volatile long loadedAt;
+        private volatile HashCode digest;
+        private boolean primed;
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private Entry<V> entry;
+
+    // callers get a view of the cached future of their own; one of them cancelling must not cancel the load
+    // everyone else is waiting on
+    @NotNull
+    public synchronized ListenableFuture<V> get(long ttl, @NotNull TimeUnit unit, @NotNull Loader<V> loader) {
+        final Entry<V> current = entry;
+
+        if (current != null && current.primed) {
+            // a primed value is served right away while we revalidate it in the background; it stays
+            // in place until the revalidated value is ready
+            current.primed = false;
+            hits.incrementAndGet();
+            revalidations.incrementAndGet();
+
+            final Entry<V> revalidating = load(loader, current);
+            Futures.addCallback(revalidating.future, new FutureCallback<V>() {
+                @Override
+                public void onSuccess(V value) {
+                    synchronized (CachedFuture.this) {
+                        if (entry == current) {
+                            entry = revalidating;
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                }
+            });
+
+            return FutureHelper.nonCancelling(current.future);
+        }
+
+        if (current != null && (!current.future.isDone() || !isExpired(current, unit.toNanos(ttl)))) {
+            hits.incrementAndGet();
+            return FutureHelper.nonCancelling(current.future);
+        }
+
+        if (current == null || current.digest == null) {
+            misses.incrementAndGet();
+            entry = load(loader, null);
+        } else {
+            revalidations.incrementAndGet();
+            entry = load(loader, current);
+        }
+
+        return FutureHelper.nonCancelling(entry.future);
+    }
+
+    // seeds an empty cache, typically from disk; the first get returns it and revalidates in the background
+    public synchronized void prime(@NotNull V value, @NotNull String payload) {
+        if (entry != null) {
+            return;
+        }
+
+        Entry<V> primed = new Entry<V>();
+        primed.future = Futures.immediateFuture(value);
+        primed.digest = Hashing.md5().hashString(payload, Charsets.UTF_8);
+        primed.loadedAt = System.nanoTime();
+        primed.primed = true;
+        entry = primed;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entry == null;
+    }
+
+    public synchronized void invalidate() {
+        entry = null;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    private boolean isExpired(@NotNull Entry<V> entry, long ttlNanos) {
+        return entry.digest == null || System.nanoTime() - entry.loadedAt >= ttlNanos;
+    }
+
+    @NotNull
+    private Entry<V> load(@NotNull final Loader<V> loader, @Nullable final Entry<V> stale) {
+        final Entry<V> loading = new Entry<V>();
+
+        loading.future = Futures.transform(loader.load(), new AsyncFunction<String, V>() {
+            @Override
+            public ListenableFuture<V> apply(String payload) throws Exception {
+                HashCode digest = Hashing.md5().hashString(payload, Charsets.UTF_8);
+
+                try {
+                    // unchanged payload; keep handing out the value we already materialized
+                    ListenableFuture<V> result = (stale != null && digest.equals(stale.digest)) ?
+                            stale.future :
+                            Futures.immediateFuture(loader.materialize(payload));
+
+                    loading.loadedAt = System.nanoTime();
+                    loading.digest = digest;
+                    return result;
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
+
+        Futures.addCallback(loading.future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                // don't hold on to failures; the next caller tries again
+                synchronized (CachedFuture.this) {
+                    if (entry == loading) {
+                        entry = null;
+                    }
+                }
+            }
+        });
+
+        return loading;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CollectionPage<E> {
+    private static final Pattern SKIP_TOKEN_PATTERN = Pattern.compile("[?&]\\$skiptoken=([^&]*)");
+
+    private List<E> items;
+    private String skipToken;
+
+    public CollectionPage(@NotNull List<E> items, @Nullable String skipToken) {
+        this.items = items;
+        this.skipToken = skipToken;
+    }
+
+    @NotNull
+    public List<E> getItems() {
+        return items;
+    }
+
+    @Nullable
+    public String getSkipToken() {
+        return skipToken;
+    }
+
+    public boolean hasMore() {
+        return skipToken != null;
+    }
+
+    @NotNull
+    public static <E> CollectionPage<E> parse(@NotNull String payload, @NotNull Class<E> clazz) throws IOException {
+        List<E> items = new ArrayList<E>();
+        String nextLink = ODataEntityReader.readCollection(new StringReader(payload), clazz, items);
+        return new CollectionPage<E>(items, getSkipToken(nextLink));
+    }
+
+    @Nullable
+    private static String getSkipToken(@Nullable String nextLink) {
+        if (nextLink == null) {
+            return null;
+        }
+
+        Matcher skipTokenMatcher = SKIP_TOKEN_PATTERN.matcher(nextLink);
+        if (!skipTokenMatcher.find()) {
+            return null;
+        }
+
+        try {
+            return URLDecoder.decode(skipTokenMatcher.group(1), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return skipTokenMatcher.group(1);
+        }
+    }
+}
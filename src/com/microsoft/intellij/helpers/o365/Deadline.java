@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// by when a call and every request it makes have to be done; carried by the thread, like the request lane
+public class Deadline {
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-call-deadline-%d").build());
+
+    private static final AtomicLong missCount = new AtomicLong();
+
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    @NotNull
+    public static Deadline after(long duration, @NotNull TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    @Nullable
+    public static Deadline current() {
+        return current.get();
+    }
+
+    public long getRemaining(@NotNull TimeUnit unit) {
+        return unit.convert(Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    // fails the call once the deadline passes, cancelling whatever it still has in flight
+    @NotNull
+    public <V> ListenableFuture<V> within(@NotNull Supplier<ListenableFuture<V>> call) {
+        ListenableFuture<V> result = enforce(this.call(call));
+
+        Futures.addCallback(result, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (throwable instanceof DeadlineExceededException) {
+                    missCount.incrementAndGet();
+                }
+            }
+        });
+
+        return result;
+    }
+
+    public <V> V call(@NotNull Supplier<V> supplier) {
+        Deadline previous = current.get();
+        current.set(this);
+
+        try {
+            return supplier.get();
+        } finally {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    @NotNull
+    private <V> ListenableFuture<V> enforce(@NotNull final ListenableFuture<V> future) {
+        final SettableFuture<V> result = SettableFuture.create();
+        FutureHelper.forward(future, result);
+        FutureHelper.propagateCancellation(result, future);
+
+        if (result.isDone()) {
+            return result;
+        }
+
+        final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.setException(new DeadlineExceededException("The directory call didn't complete in time"))) {
+                    future.cancel(true);
+                }
+            }
+        }, getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                expiry.cancel(false);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return result;
+    }
+}
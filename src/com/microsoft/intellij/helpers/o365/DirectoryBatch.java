@@ -0,0 +1,495 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.microsoft.services.odata.BaseODataContainer;
+import com.microsoft.services.odata.interfaces.DependencyResolver;
+import com.microsoft.services.odata.interfaces.HttpVerb;
+import com.microsoft.services.odata.interfaces.JsonSerializer;
+import com.microsoft.services.odata.interfaces.ODataURL;
+import com.microsoft.services.odata.interfaces.Request;
+import com.microsoft.services.odata.interfaces.Response;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+import com.microsoft.tooling.msservices.helpers.azure.AzureCmdException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+// nothing is sent until execute is called, and a batch must not be reused
+public class DirectoryBatch {
+    // the directory service rejects batches with more than five queries and change sets combined
+    private static final int MAX_OPERATIONS = 5;
+    private static final String CRLF = "\r\n";
+
+    private static class Operation {
+        private HttpVerb verb;
+        private String url;
+        private String content;
+        private SettableFuture<String> result = SettableFuture.create();
+    }
+
+    private static class OperationResponse {
+        private int status;
+        private String retryAfter;
+        private String content;
+    }
+
+    // path components and query parameters added on top of the url are put back together by toString
+    private static class BatchURL implements ODataURL {
+        private String baseUrl;
+        private final List<String> pathComponents = Lists.newArrayList();
+        private final Map<String, String> queryStringParameters = Maps.newLinkedHashMap();
+
+        BatchURL(@NotNull String url) {
+            this.baseUrl = url;
+        }
+
+        @Override
+        public void setBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public void appendPathComponent(String component) {
+            pathComponents.add(component);
+        }
+
+        @Override
+        public void prependPathComponent(String component) {
+            pathComponents.add(0, component);
+        }
+
+        @Override
+        public void addQueryStringParameter(String name, String value) {
+            queryStringParameters.put(name, value);
+        }
+
+        @Override
+        public Map<String, String> getQueryStringParameters() {
+            return Collections.unmodifiableMap(queryStringParameters);
+        }
+
+        @Override
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        @Override
+        public List<String> getPathComponents() {
+            return Collections.unmodifiableList(pathComponents);
+        }
+
+        @Override
+        public String toString() {
+            String base = baseUrl;
+            String query = "";
+
+            int queryStart = base.indexOf('?');
+            if (queryStart >= 0) {
+                query = base.substring(queryStart + 1);
+                base = base.substring(0, queryStart);
+            }
+
+            StringBuilder url = new StringBuilder(base);
+            for (String component : pathComponents) {
+                if (url.length() == 0 || url.charAt(url.length() - 1) != '/') {
+                    url.append('/');
+                }
+
+                url.append(component);
+            }
+
+            StringBuilder queryString = new StringBuilder(query);
+            for (Map.Entry<String, String> parameter : queryStringParameters.entrySet()) {
+                if (queryString.length() > 0) {
+                    queryString.append('&');
+                }
+
+                queryString.append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+            }
+
+            if (queryString.length() > 0) {
+                url.append('?').append(queryString);
+            }
+
+            return url.toString();
+        }
+    }
+
+    private final String serviceRoot;
+    private final String apiVersion;
+    private final DependencyResolver resolver;
+    private final BoundedRequestExecutor executor;
+    private final JsonSerializer serializer;
+    private final List<Operation> operations = Lists.newArrayList();
+    private boolean executed;
+
+    // the service root has no trailing slash, e.g. https://graph.windows.net/contoso.onmicrosoft.com
+    public DirectoryBatch(@NotNull String serviceRoot,
+                          @NotNull String apiVersion,
+                          @NotNull DependencyResolver resolver,
+                          @NotNull BoundedRequestExecutor executor) {
+        this.serviceRoot = serviceRoot;
+        this.apiVersion = apiVersion;
+        this.resolver = resolver;
+        this.executor = executor;
+        this.serializer = resolver.getJsonSerializer();
+    }
+
+    @NotNull
+    public synchronized ListenableFuture<String> queryRaw(@NotNull String entitySet, @Nullable String filter) {
+        String url = getEntitySetUrl(entitySet);
+        if (filter != null) {
+            url += "&$filter=" + encode(filter);
+        }
+
+        return enqueue(HttpVerb.GET, url, null);
+    }
+
+    @NotNull
+    public <E> ListenableFuture<List<E>> query(@NotNull String entitySet, @Nullable String filter, @NotNull final Class<E> clazz) {
+        return Futures.transform(queryRaw(entitySet, filter), new AsyncFunction<String, List<E>>() {
+            @Override
+            public ListenableFuture<List<E>> apply(String payload) throws Exception {
+                try {
+                    return Futures.immediateFuture(serializer.deserializeList(payload, clazz));
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
+    }
+
+    @NotNull
+    public synchronized <E> ListenableFuture<E> add(@NotNull String entitySet, @NotNull E entity, @NotNull final Class<E> clazz) {
+        ListenableFuture<String> result = enqueue(HttpVerb.POST, getEntitySetUrl(entitySet), serializer.serialize(entity));
+
+        return Futures.transform(result, new AsyncFunction<String, E>() {
+            @Override
+            public ListenableFuture<E> apply(String payload) throws Exception {
+                try {
+                    return Futures.immediateFuture(serializer.deserialize(payload, clazz));
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
+    }
+
+    // sends more than one request when there are too many operations for a single batch
+    public synchronized void execute() {
+        if (executed) {
+            throw new IllegalStateException("The batch has already been executed");
+        }
+
+        executed = true;
+
+        for (List<Operation> chunk : Lists.partition(operations, MAX_OPERATIONS)) {
+            if (chunk.size() == 1) {
+                // a batch of one buys us nothing; the envelope just makes the request bigger
+                executeSingle(chunk.get(0));
+            } else {
+                executeBatch(chunk);
+            }
+        }
+    }
+
+    @NotNull
+    private ListenableFuture<String> enqueue(@NotNull HttpVerb verb, @NotNull String url, @Nullable String content) {
+        if (executed) {
+            throw new IllegalStateException("The batch has already been executed");
+        }
+
+        Operation operation = new Operation();
+        operation.verb = verb;
+        operation.url = url;
+        operation.content = content;
+        operations.add(operation);
+
+        return operation.result;
+    }
+
+    private void executeSingle(@NotNull final Operation operation) {
+        Request request = createRequest(operation.verb, operation.url);
+        request.addHeader("Content-Type", "application/json");
+
+        if (operation.content != null) {
+            request.setContent(operation.content.getBytes(Charsets.UTF_8));
+        }
+
+        Futures.addCallback(send(request), new FutureCallback<Response>() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    OperationResponse operationResponse = new OperationResponse();
+                    operationResponse.status = response.getStatus();
+                    operationResponse.retryAfter = RetryingRequestExecutor.getHeader(response, "Retry-After");
+                    operationResponse.content = readContent(response);
+                    complete(operation, operationResponse);
+                } catch (IOException e) {
+                    operation.result.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                operation.result.setException(throwable);
+            }
+        });
+    }
+
+    private void executeBatch(@NotNull final List<Operation> batch) {
+        String boundary = "batch_" + UUID.randomUUID().toString();
+
+        StringBuilder content = new StringBuilder();
+        for (Operation operation : batch) {
+            content.append("--").append(boundary).append(CRLF);
+
+            if (operation.verb == HttpVerb.GET) {
+                appendOperation(content, operation);
+            } else {
+                // writes have to travel inside a change set
+                String changeSetBoundary = "changeset_" + UUID.randomUUID().toString();
+                content.append("Content-Type: multipart/mixed; boundary=").append(changeSetBoundary).append(CRLF).
+                        append(CRLF).
+                        append("--").append(changeSetBoundary).append(CRLF);
+                appendOperation(content, operation);
+                content.append("--").append(changeSetBoundary).append("--").append(CRLF);
+            }
+        }
+        content.append("--").append(boundary).append("--").append(CRLF);
+
+        Request request = createRequest(HttpVerb.POST, serviceRoot + "/$batch?api-version=" + apiVersion);
+        request.addHeader("Content-Type", "multipart/mixed; boundary=" + boundary);
+        request.setContent(content.toString().getBytes(Charsets.UTF_8));
+
+        Futures.addCallback(send(request), new FutureCallback<Response>() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    String payload = readContent(response);
+
+                    if (response.getStatus() < 200 || response.getStatus() >= 300) {
+                        fail(batch, new DirectoryRequestException("The directory batch request failed with HTTP status " +
+                                response.getStatus(), payload, response.getStatus(),
+                                RetryingRequestExecutor.getHeader(response, "Retry-After")));
+                        return;
+                    }
+
+                    List<OperationResponse> responses = parseResponses(payload);
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (i < responses.size()) {
+                            complete(batch.get(i), responses.get(i));
+                        } else {
+                            batch.get(i).result.setException(new AzureCmdException("The directory batch response " +
+                                    "did not include a result for " + batch.get(i).url, payload));
+                        }
+                    }
+                } catch (Throwable throwable) {
+                    fail(batch, throwable);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                fail(batch, throwable);
+            }
+        });
+    }
+
+    @NotNull
+    private ListenableFuture<Response> send(@NotNull final Request request) {
+        return executor.submit(new Supplier<ListenableFuture<Response>>() {
+            @Override
+            public ListenableFuture<Response> get() {
+                return resolver.getHttpTransport().execute(request);
+            }
+        });
+    }
+
+    @NotNull
+    private Request createRequest(@NotNull HttpVerb verb, @NotNull String url) {
+        Request request = resolver.createRequest();
+        request.setVerb(verb);
+        request.setUrl(new BatchURL(url));
+        request.addHeader("Accept", "application/json");
+        request.addHeader("User-Agent", resolver.getPlatformUserAgent(getClass().getCanonicalName()));
+        resolver.getCredentials().prepareRequest(request);
+        return request;
+    }
+
+    @NotNull
+    private String getEntitySetUrl(@NotNull String entitySet) {
+        return serviceRoot + "/" + entitySet + "?api-version=" + apiVersion;
+    }
+
+    private static void appendOperation(@NotNull StringBuilder content, @NotNull Operation operation) {
+        content.append("Content-Type: application/http").append(CRLF).
+                append("Content-Transfer-Encoding: binary").append(CRLF).
+                append(CRLF).
+                append(operation.verb).append(' ').append(operation.url).append(" HTTP/1.1").append(CRLF).
+                append("Accept: application/json").append(CRLF);
+
+        if (operation.content != null) {
+            content.append("Content-Type: application/json").append(CRLF).
+                    append(CRLF).
+                    append(operation.content).append(CRLF);
+        } else {
+            content.append(CRLF);
+        }
+    }
+
+    private static void complete(@NotNull Operation operation, @NotNull OperationResponse response) {
+        if (response.status >= 200 && response.status < 300) {
+            operation.result.set(response.content);
+        } else {
+            operation.result.setException(new DirectoryRequestException("The directory request " + operation.verb + " " +
+                    operation.url + " failed with HTTP status " + response.status, response.content,
+                    response.status, response.retryAfter));
+        }
+    }
+
+    private static void fail(@NotNull List<Operation> batch, @NotNull Throwable throwable) {
+        for (Operation operation : batch) {
+            operation.result.setException(throwable);
+        }
+    }
+
+    @NotNull
+    private static String readContent(@NotNull Response response) throws IOException {
+        InputStream stream = response.getStream();
+
+        try {
+            return stream == null ? "" : new String(BaseODataContainer.readAllBytes(stream), Charsets.UTF_8);
+        } finally {
+            response.close();
+        }
+    }
+
+    // operation responses in the order the operations were sent, change sets expanded in place
+    @NotNull
+    private static List<OperationResponse> parseResponses(@NotNull String payload) {
+        List<OperationResponse> responses = Lists.newArrayList();
+        String normalized = payload.replace("\r\n", "\n");
+
+        // the boundary is picked up from the first delimiter line
+        String delimiter = null;
+        for (String line : normalized.split("\n")) {
+            if (line.startsWith("--")) {
+                delimiter = line.trim();
+                break;
+            }
+        }
+
+        if (delimiter == null) {
+            return responses;
+        }
+
+        String[] parts = normalized.split(Pattern.quote(delimiter));
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.startsWith("--")) {
+                break;
+            }
+
+            if (part.startsWith("\n")) {
+                part = part.substring(1);
+            }
+
+            int headersEnd = part.indexOf("\n\n");
+            if (headersEnd < 0) {
+                continue;
+            }
+
+            Map<String, String> headers = parseHeaders(part.substring(0, headersEnd));
+            String body = part.substring(headersEnd + 2);
+
+            String contentType = headers.get("content-type");
+            if (contentType != null && contentType.startsWith("multipart/mixed")) {
+                responses.addAll(parseResponses(body));
+            } else {
+                responses.add(parseResponse(body));
+            }
+        }
+
+        return responses;
+    }
+
+    @NotNull
+    private static OperationResponse parseResponse(@NotNull String message) {
+        OperationResponse response = new OperationResponse();
+
+        // status line, for e.g. "HTTP/1.1 201 Created"
+        int statusLineEnd = message.indexOf('\n');
+        String statusLine = statusLineEnd < 0 ? message : message.substring(0, statusLineEnd);
+        String[] statusLineParts = statusLine.trim().split(" ", 3);
+        response.status = statusLineParts.length > 1 ? Integer.parseInt(statusLineParts[1]) : 0;
+
+        int headersEnd = message.indexOf("\n\n");
+        if (headersEnd > statusLineEnd && statusLineEnd >= 0) {
+            response.retryAfter = parseHeaders(message.substring(statusLineEnd + 1, headersEnd)).get("retry-after");
+        }
+
+        response.content = headersEnd < 0 ? "" : message.substring(headersEnd + 2).trim();
+        return response;
+    }
+
+    @NotNull
+    private static Map<String, String> parseHeaders(@NotNull String headers) {
+        Map<String, String> map = Maps.newHashMap();
+
+        for (String line : headers.split("\n")) {
+            int separator = line.indexOf(':');
+            if (separator > 0) {
+                map.put(line.substring(0, separator).trim().toLowerCase(), line.substring(separator + 1).trim());
+            }
+        }
+
+        return map;
+    }
+
+    @NotNull
+    private static String encode(@NotNull String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// objects are kept as raw json so changes merge without knowing the type; deleted ones carry aad.isDeleted
+public class DirectoryDelta {
+    private static final String OBJECT_ID = "objectId";
+    private static final String IS_DELETED = "aad.isDeleted";
+    private static final String ODATA_TYPE = "odata.type";
+
+    private List<JsonObject> changes;
+    private String nextLink;
+    private String deltaLink;
+
+    public DirectoryDelta(@NotNull List<JsonObject> changes, @Nullable String nextLink, @Nullable String deltaLink) {
+        this.changes = changes;
+        this.nextLink = nextLink;
+        this.deltaLink = deltaLink;
+    }
+
+    @NotNull
+    public List<JsonObject> getChanges() {
+        return changes;
+    }
+
+    @Nullable
+    public String getNextLink() {
+        return nextLink;
+    }
+
+    @Nullable
+    public String getDeltaLink() {
+        return deltaLink;
+    }
+
+    public boolean hasMore() {
+        return nextLink != null;
+    }
+
+    @NotNull
+    public static DirectoryDelta parse(@NotNull String payload) {
+        JsonObject root = new JsonParser().parse(payload).getAsJsonObject();
+
+        List<JsonObject> changes = Lists.newArrayList();
+        JsonElement value = root.get("value");
+        if (value != null && value.isJsonArray()) {
+            for (JsonElement element : value.getAsJsonArray()) {
+                if (element.isJsonObject()) {
+                    changes.add(element.getAsJsonObject());
+                }
+            }
+        }
+
+        // depending on the api version the links are annotated with "aad." or "@odata."
+        String nextLink = null;
+        String deltaLink = null;
+        for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
+            if (!entry.getValue().isJsonPrimitive()) {
+                continue;
+            }
+
+            if (entry.getKey().endsWith("nextLink")) {
+                nextLink = entry.getValue().getAsString();
+            } else if (entry.getKey().endsWith("deltaLink")) {
+                deltaLink = entry.getValue().getAsString();
+            }
+        }
+
+        return new DirectoryDelta(changes, nextLink, deltaLink);
+    }
+
+    // merges changes property by property and ignores added or changed objects of other types
+    public static void apply(@NotNull Map<String, JsonObject> objects,
+                             @NotNull Collection<JsonObject> changes,
+                             @NotNull String type) {
+        for (JsonObject change : changes) {
+            JsonElement objectId = change.get(OBJECT_ID);
+            if (objectId == null || !objectId.isJsonPrimitive()) {
+                continue;
+            }
+
+            String id = objectId.getAsString();
+            JsonElement isDeleted = change.get(IS_DELETED);
+
+            if (isDeleted != null && isDeleted.isJsonPrimitive() && isDeleted.getAsBoolean()) {
+                objects.remove(id);
+                continue;
+            }
+
+            JsonElement odataType = change.get(ODATA_TYPE);
+            if (odataType != null && odataType.isJsonPrimitive() && !type.equals(odataType.getAsString())) {
+                continue;
+            }
+
+            JsonObject object = objects.get(id);
+            if (object == null) {
+                objects.put(id, change);
+            } else {
+                for (Map.Entry<String, JsonElement> property : change.entrySet()) {
+                    object.add(property.getKey(), property.getValue());
+                }
+            }
+        }
+    }
+
+    // leaves out the api version, which every request adds on its own
+    @NotNull
+    public static Map<String, String> getLinkParameters(@NotNull String link) {
+        Map<String, String> parameters = Maps.newLinkedHashMap();
+
+        int queryStart = link.indexOf('?');
+        if (queryStart < 0) {
+            return parameters;
+        }
+
+        for (String parameter : link.substring(queryStart + 1).split("&")) {
+            int separator = parameter.indexOf('=');
+            String name = decode(separator < 0 ? parameter : parameter.substring(0, separator));
+            String value = separator < 0 ? "" : decode(parameter.substring(separator + 1));
+
+            if (!name.isEmpty() && !name.equals("api-version")) {
+                parameters.put(name, value);
+            }
+        }
+
+        return parameters;
+    }
+
+    @NotNull
+    private static String decode(@NotNull String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+}
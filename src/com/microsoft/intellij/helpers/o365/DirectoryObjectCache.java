@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+// bounded by size and updated by our own writes
+public class DirectoryObjectCache {
+    private static final String OBJECT_PREFIX = "object/";
+    private static final String APPLICATION_BY_APP_ID_PREFIX = "application/appId/";
+    private static final String SERVICE_PRINCIPALS_BY_APP_ID_PREFIX = "servicePrincipals/appId/";
+    private static final String VALUE = "value";
+
+    private final Cache<String, String> entries;
+
+    public DirectoryObjectCache(long maxBytes, long ttl, @NotNull TimeUnit unit) {
+        entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, String>() {
+                    @Override
+                    public int weigh(@NotNull String key, @NotNull String value) {
+                        // strings take two bytes a character
+                        return 2 * (key.length() + value.length());
+                    }
+                })
+                .expireAfterWrite(ttl, unit)
+                .recordStats()
+                .build();
+    }
+
+    @Nullable
+    public String getObject(@NotNull String objectId) {
+        return entries.getIfPresent(OBJECT_PREFIX + objectId);
+    }
+
+    public void putObject(@NotNull String objectId, @NotNull String payload) {
+        entries.put(OBJECT_PREFIX + objectId, payload);
+    }
+
+    public void putApplication(@NotNull String objectId, @Nullable String appId, @NotNull String payload) {
+        putObject(objectId, payload);
+
+        if (appId != null) {
+            entries.put(APPLICATION_BY_APP_ID_PREFIX + appId, objectId);
+        }
+    }
+
+    @Nullable
+    public String getApplicationByAppId(@NotNull String appId) {
+        String objectId = entries.getIfPresent(APPLICATION_BY_APP_ID_PREFIX + appId);
+        return objectId != null ? getObject(objectId) : null;
+    }
+
+    // as a collection payload
+    @Nullable
+    public String getServicePrincipals(@NotNull String appId) {
+        return entries.getIfPresent(SERVICE_PRINCIPALS_BY_APP_ID_PREFIX + appId);
+    }
+
+    public void putServicePrincipals(@NotNull String appId, @NotNull String payload) {
+        entries.put(SERVICE_PRINCIPALS_BY_APP_ID_PREFIX + appId, payload);
+    }
+
+    // only if the app's service principals are cached
+    public void addServicePrincipal(@NotNull String appId, @NotNull String servicePrincipal) {
+        String key = SERVICE_PRINCIPALS_BY_APP_ID_PREFIX + appId;
+        String payload = entries.getIfPresent(key);
+
+        if (payload == null) {
+            return;
+        }
+
+        try {
+            JsonParser parser = new JsonParser();
+            JsonObject collection = parser.parse(payload).getAsJsonObject();
+            JsonElement value = collection.get(VALUE);
+
+            if (value == null || !value.isJsonArray()) {
+                entries.invalidate(key);
+                return;
+            }
+
+            JsonArray servicePrincipals = value.getAsJsonArray();
+            servicePrincipals.add(parser.parse(servicePrincipal));
+            entries.put(key, collection.toString());
+        } catch (RuntimeException ignored) {
+            // rather than serve something we couldn't keep up to date, read it again next time
+            entries.invalidate(key);
+        }
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return entries.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return entries.stats().missCount();
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.concurrent.Future;
+
+// cancelling a future handed out should stop the work behind it, unless that work is shared
+public class FutureHelper {
+    private FutureHelper() {
+    }
+
+    public static <V> void forward(@NotNull ListenableFuture<V> from, @NotNull final SettableFuture<V> to) {
+        Futures.addCallback(from, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                to.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                to.setException(throwable);
+            }
+        });
+    }
+
+    public static void propagateCancellation(@NotNull final ListenableFuture<?> from, @NotNull final Future<?> to) {
+        from.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (from.isCancelled()) {
+                    to.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    // for handing out results that are shared
+    @NotNull
+    public static <V> ListenableFuture<V> nonCancelling(@NotNull ListenableFuture<V> future) {
+        SettableFuture<V> result = SettableFuture.create();
+        forward(future, result);
+        return result;
+    }
+}
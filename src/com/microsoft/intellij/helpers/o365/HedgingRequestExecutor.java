@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.intellij.helpers.graph.CancellationScope;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// sends a read again once it's slower than the given percentile of recent reads; idempotent reads only
+public class HedgingRequestExecutor {
+    private static final int LATENCY_WINDOW = 256;
+
+    private static final int MIN_SAMPLES = 32;
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-request-hedge-%d").build());
+
+    private final int percentile;
+    private final PriorityRequestScheduler requestScheduler;
+
+    private final long[] recentLatencyNanos = new long[LATENCY_WINDOW];
+    private int sampleCount;
+
+    private final AtomicLong hedgedCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    // a percentile outside of 1 to 99 turns hedging off
+    public HedgingRequestExecutor(int percentile, @NotNull PriorityRequestScheduler requestScheduler) {
+        this.percentile = percentile;
+        this.requestScheduler = requestScheduler;
+    }
+
+    @NotNull
+    public <V> ListenableFuture<V> execute(@NotNull final Supplier<ListenableFuture<V>> read) {
+        final SettableFuture<V> result = SettableFuture.create();
+        final long startedAt = System.nanoTime();
+
+        // the result only fails along with the last of the reads
+        final AtomicInteger outstanding = new AtomicInteger(1);
+        final AtomicReference<ListenableFuture<V>> primary = new AtomicReference<ListenableFuture<V>>();
+        final AtomicReference<ListenableFuture<V>> hedge = new AtomicReference<ListenableFuture<V>>();
+
+        primary.set(send(read, result, startedAt, outstanding, hedge, false));
+
+        long delayNanos = getHedgeDelay();
+        if (delayNanos >= 0 && !result.isDone()) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // the hedge goes out only if it doesn't take a token anyone else is waiting for
+                    if (result.isDone() || !requestScheduler.tryAcquire()) {
+                        return;
+                    }
+
+                    outstanding.incrementAndGet();
+                    hedgedCount.incrementAndGet();
+                    hedge.set(send(read, result, startedAt, outstanding, primary, true));
+
+                    // the primary may have answered while the hedge was being sent
+                    if (result.isDone()) {
+                        hedge.get().cancel(true);
+                    }
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        return result;
+    }
+
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    @NotNull
+    private <V> ListenableFuture<V> send(@NotNull Supplier<ListenableFuture<V>> read,
+                                         @NotNull final SettableFuture<V> result,
+                                         final long startedAt,
+                                         @NotNull final AtomicInteger outstanding,
+                                         @NotNull final AtomicReference<ListenableFuture<V>> other,
+                                         final boolean isHedge) {
+        ListenableFuture<V> future;
+
+        try {
+            future = CancellationScope.call(read);
+        } catch (Throwable throwable) {
+            future = Futures.immediateFailedFuture(throwable);
+        }
+
+        FutureHelper.propagateCancellation(result, future);
+
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                if (!result.set(value)) {
+                    return;
+                }
+
+                recordLatency(System.nanoTime() - startedAt);
+
+                if (isHedge) {
+                    hedgeWinCount.incrementAndGet();
+                }
+
+                ListenableFuture<V> loser = other.get();
+                if (loser != null) {
+                    loser.cancel(true);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (outstanding.decrementAndGet() == 0) {
+                    result.setException(throwable);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    // returns how long to wait before hedging a read or -1 if it shouldn't be
+    private synchronized long getHedgeDelay() {
+        if (percentile < 1 || percentile > 99 || sampleCount < MIN_SAMPLES) {
+            return -1;
+        }
+
+        long[] sorted = Arrays.copyOf(recentLatencyNanos, Math.min(sampleCount, LATENCY_WINDOW));
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return Math.max(MIN_DELAY_NANOS, sorted[Math.max(0, index)]);
+    }
+
+    private synchronized void recordLatency(long latencyNanos) {
+        recentLatencyNanos[sampleCount++ % LATENCY_WINDOW] = latencyNanos;
+
+        // the count only picks the slot once the window is full; keep it from overflowing
+        if (sampleCount == 2 * LATENCY_WINDOW) {
+            sampleCount = LATENCY_WINDOW;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.gson.FieldNamingStrategy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.microsoft.services.odata.Constants;
+import com.microsoft.services.odata.impl.CalendarTypeAdapter;
+import com.microsoft.services.odata.impl.desktop.ByteArrayTypeAdapterImpl;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+// maps entities straight off a pull parser, skipping properties the target class has no field for
+public class ODataEntityReader {
+    private static final String VALUE = "value";
+    private static final String NEXT_LINK = "nextLink";
+
+    private static final Gson GSON = new GsonBuilder()
+            .setFieldNamingStrategy(new FieldNamingStrategy() {
+                @Override
+                public String translateName(Field field) {
+                    String name = field.getName();
+
+                    if (name.equals(Constants.ODATA_TYPE_PROPERTY_NAME)) {
+                        return Constants.ODATA_TYPE_JSON_PROPERTY;
+                    }
+
+                    if (name.startsWith(Constants.PROPERTY_NAME_RESERVED_PREFIX)) {
+                        return name.substring(Constants.PROPERTY_NAME_RESERVED_PREFIX.length());
+                    }
+
+                    return name;
+                }
+            })
+            .registerTypeAdapter(Calendar.class, new CalendarTypeAdapter())
+            .registerTypeAdapter(GregorianCalendar.class, new CalendarTypeAdapter())
+            .registerTypeAdapter(byte[].class, new ByteArrayTypeAdapterImpl())
+            .create();
+
+    // returns the payload's next link, if any
+    @Nullable
+    public static <E> String readCollection(@NotNull Reader payload,
+                                            @NotNull Class<E> clazz,
+                                            @NotNull List<? super E> items) throws IOException {
+        JsonReader reader = new JsonReader(payload);
+        String nextLink = null;
+
+        try {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (name.equals(VALUE) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        E entity = GSON.fromJson(reader, clazz);
+                        if (entity != null) {
+                            items.add(entity);
+                        }
+                    }
+                    reader.endArray();
+                } else if (name.endsWith(NEXT_LINK) && reader.peek() == JsonToken.STRING) {
+                    // depending on the api version the link is annotated with "odata." or "@odata."
+                    nextLink = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        return nextLink;
+    }
+
+    @NotNull
+    public static <E> List<E> readList(@NotNull String payload, @NotNull Class<E> clazz) throws IOException {
+        List<E> items = new ArrayList<E>();
+        readCollection(new StringReader(payload), clazz, items);
+        return items;
+    }
+}
@@ -28,8 +28,10 @@ import com.microsoft.directoryservices.OAuth2PermissionGrant;
 import com.microsoft.directoryservices.ServicePrincipal;
 import com.microsoft.intellij.helpers.graph.ServicePermissionEntry;
 import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
 import com.microsoft.tooling.msservices.helpers.azure.AzureCmdException;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface Office365Manager {
@@ -37,11 +39,38 @@ public interface Office365Manager {
 
     boolean authenticated();
 
+    // the token is good and far enough from expiring that nobody gets asked to sign in
+    boolean hasUsableToken();
+
     void clearAuthentication();
 
     @NotNull
     ListenableFuture<List<Application>> getApplicationList();
 
+    // never goes to the network; null when nothing has been saved for the tenant
+    @Nullable
+    List<ApplicationSummary> getCachedApplicationSummaries();
+
+    // downloads only the changes since the last refresh, or everything when there's nothing to go on
+    @NotNull
+    ListenableFuture<List<Application>> refreshApplicationList();
+
+    // lists the applications again through a projection and saves them on disk
+    @NotNull
+    ListenableFuture<List<ApplicationSummary>> refreshApplicationSummaries();
+
+    // completes with the number of applications once the last page has been delivered
+    @NotNull
+    ListenableFuture<Integer> getApplicationPages(@NotNull PageCallback<Application> callback);
+
+    // reads only what listing needs; getApplicationByObjectId reads the full application
+    @NotNull
+    ListenableFuture<Integer> getApplicationSummaryPages(@NotNull PageCallback<ApplicationSummary> callback);
+
+    // filtered by the service, so this is cheap whatever the size of the tenant
+    @NotNull
+    ListenableFuture<List<ApplicationSummary>> searchApplications(@NotNull String prefix, int top);
+
     @NotNull
     ListenableFuture<Application> getApplicationByObjectId(@NotNull String objectId);
 
@@ -52,15 +81,29 @@ public interface Office365Manager {
     ListenableFuture<Application> setO365PermissionsForApp(@NotNull Application application,
                                                            @NotNull List<ServicePermissionEntry> permissionEntryList);
 
+    // always succeeds; the result tells which applications failed and why
+    @NotNull
+    ListenableFuture<BulkPermissionResult> setO365PermissionsForApps(@NotNull Collection<String> objectIds,
+                                                                     @NotNull List<ServicePermissionEntry> permissionEntryList);
+
     @NotNull
     ListenableFuture<Application> updateApplication(@NotNull Application application);
 
+    // cached and shared between callers, so the entities must not be modified
     @NotNull
     ListenableFuture<List<ServicePrincipal>> getServicePrincipalsForO365();
 
+    void invalidateServicePrincipalsForO365();
+
     @NotNull
     ListenableFuture<List<ServicePrincipal>> getServicePrincipals();
 
+    @NotNull
+    ListenableFuture<List<ServicePrincipal>> refreshServicePrincipalList();
+
+    @NotNull
+    ListenableFuture<Integer> getServicePrincipalPages(@NotNull PageCallback<ServicePrincipal> callback);
+
     @NotNull
     ListenableFuture<List<OAuth2PermissionGrant>> getPermissionGrants();
 
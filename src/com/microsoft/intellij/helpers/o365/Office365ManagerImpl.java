@@ -22,24 +22,46 @@
 package com.microsoft.intellij.helpers.o365;
 
 import com.google.common.base.*;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.project.Project;
 import com.microsoft.directoryservices.*;
+import com.microsoft.directoryservices.odata.ApplicationCollectionOperations;
 import com.microsoft.directoryservices.odata.ApplicationFetcher;
 import com.microsoft.directoryservices.odata.DirectoryClient;
+import com.microsoft.directoryservices.odata.DirectoryObjectCollectionOperations;
+import com.microsoft.directoryservices.odata.DirectoryObjectFetcher;
 import com.microsoft.directoryservices.odata.DirectoryObjectOperations;
+import com.microsoft.directoryservices.odata.ServicePrincipalCollectionOperations;
+import com.microsoft.directoryservices.odata.ServicePrincipalFetcher;
+import com.microsoft.intellij.helpers.graph.CancellationScope;
 import com.microsoft.intellij.helpers.graph.PluginDependencyResolver;
 import com.microsoft.intellij.helpers.graph.ServicePermissionEntry;
 import com.microsoft.services.odata.ODataCollectionFetcher;
 import com.microsoft.services.odata.ODataEntityFetcher;
 import com.microsoft.services.odata.ODataOperations;
+import com.microsoft.services.odata.impl.desktop.GsonSerializer;
+import com.microsoft.services.odata.interfaces.JsonSerializer;
 import com.microsoft.tooling.msservices.components.AppSettingsNames;
 import com.microsoft.tooling.msservices.components.DefaultLoader;
 import com.microsoft.tooling.msservices.components.PluginSettings;
@@ -50,13 +72,18 @@ import com.microsoft.tooling.msservices.helpers.auth.AADManager;
 import com.microsoft.tooling.msservices.helpers.auth.AADManagerImpl;
 import com.microsoft.tooling.msservices.helpers.auth.UserInfo;
 import com.microsoft.tooling.msservices.helpers.azure.AzureCmdException;
-import com.microsoft.tooling.msservices.model.Office365Permission;
-import com.microsoft.tooling.msservices.model.Office365PermissionList;
-import com.microsoft.tooling.msservices.model.Office365Service;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Office365ManagerImpl implements Office365Manager {
     public class ServiceAppIds {
@@ -65,33 +92,215 @@ public class Office365ManagerImpl implements Office365Manager {
         public static final String AZURE_ACTIVE_DIRECTORY = "00000002-0000-0000-c000-000000000000";
     }
 
+    // custom query parameters that are strings get quoted by the OData library; values such as skip
+    // tokens have to go out verbatim so we hand them over as an object whose toString is the raw value
+    private static class ODataLiteral {
+        private final String value;
+
+        ODataLiteral(@NotNull String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    // the signed in user along with the token we last got for them and the client that uses it; published
+    // as a whole so that readers never see a token without its client or a client for someone else
+    private static class AuthState {
+        private final UserInfo userInfo;
+        private final String accessToken;
+        private final long tokenExpiresAt;
+        private final DirectoryClient directoryClient;
+
+        AuthState(@Nullable UserInfo userInfo, @Nullable String accessToken, @Nullable DirectoryClient directoryClient) {
+            this.userInfo = userInfo;
+            this.accessToken = accessToken;
+            this.tokenExpiresAt = (accessToken != null) ? getTokenExpiry(accessToken) : 0;
+            this.directoryClient = directoryClient;
+        }
+
+        @Nullable
+        UserInfo getUserInfo() {
+            return userInfo;
+        }
+
+        @Nullable
+        String getAccessToken() {
+            return accessToken;
+        }
+
+        @Nullable
+        DirectoryClient getDirectoryClient() {
+            return directoryClient;
+        }
+
+        boolean hasUsableToken(long now) {
+            return accessToken != null && directoryClient != null && now < tokenExpiresAt;
+        }
+
+        boolean isTokenDueForRenewal(long now) {
+            return now >= tokenExpiresAt - TOKEN_RENEWAL_MARGIN_MILLIS;
+        }
+    }
+
+    // an application as we last read it from or wrote it to the directory, serialized the way we'd send it
+    // so that it can be diffed against the application we're asked to save
+    private static class ApplicationSnapshot {
+        private final JsonObject state;
+        private final String etag;
+
+        ApplicationSnapshot(@NotNull JsonObject state, @Nullable String etag) {
+            this.state = state;
+            this.etag = etag;
+        }
+
+        @NotNull
+        JsonObject getState() {
+            return state;
+        }
+
+        @Nullable
+        String getEtag() {
+            return etag;
+        }
+    }
+
     public static final String GRAPH_API_URI_TEMPLATE = "{base_uri}{tenant_domain}?api-version={api_version}";
     public static final String PROJECT_APP_ID = "com.microsoft.intellij.ProjectAppId";
 
+    private static final String DIRECTORY_CACHE_PATH = "ms-cloud-services-for-android/o365";
+
+    // sign in and sign out tend to come in bursts; give them a moment to settle before writing the settings
+    private static final long USER_INFO_WRITE_DELAY_MILLIS = 250;
+
+    // the largest page size the directory service accepts for collection reads
+    private static final int PAGE_SIZE = 999;
+
+    private static final int APPLICATION_SNAPSHOTS_MAX = 256;
+    private static final int PRECONDITION_FAILED = 412;
+    private static final int UNAUTHORIZED = 401;
+
+    // tokens are renewed in the background once they are this close to expiring; tokens whose expiry we
+    // can't tell are assumed to last for the default lifetime, a 401 tells us if they don't
+    private static final long TOKEN_RENEWAL_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_TOKEN_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    // the AAD manager renews a token once a request fails with an error that mentions this
+    private static final String EXPIRED_TOKEN_ERROR = "Authentication_ExpiredToken";
+
+    private static final String SERVICE_PRINCIPALS = "servicePrincipals";
+    private static final String APPLICATION_TYPE = "Microsoft.DirectoryServices.Application";
+    private static final String SERVICE_PRINCIPAL_TYPE = "Microsoft.DirectoryServices.ServicePrincipal";
+    private static final String O365_SERVICE_PRINCIPALS_FILTER = "appId eq '" + Joiner.on("' or appId eq '").join(new String[]{
+            ServiceAppIds.AZURE_ACTIVE_DIRECTORY,
+            ServiceAppIds.EXCHANGE,
+            ServiceAppIds.SHARE_POINT
+    }) + "'";
+    private static final Set<String> O365_SERVICE_APP_IDS = ImmutableSet.of(
+            ServiceAppIds.SHARE_POINT,
+            ServiceAppIds.EXCHANGE,
+            ServiceAppIds.AZURE_ACTIVE_DIRECTORY);
+
     private static Office365Manager instance;
     private static Gson gson;
+    private static JsonSerializer jsonSerializer = new GsonSerializer();
+
+    // entities read from a collection normally carry every property we need; these predicates
+    // identify the ones that don't so that we can go back and read them individually
+    private static final Predicate<Application> IS_APPLICATION_COMPLETE = new Predicate<Application>() {
+        @Override
+        public boolean apply(Application application) {
+            return application.getrequiredResourceAccess() != null;
+        }
+    };
+
+    private static final Predicate<ServicePrincipal> IS_SERVICE_PRINCIPAL_COMPLETE = new Predicate<ServicePrincipal>() {
+        @Override
+        public boolean apply(ServicePrincipal servicePrincipal) {
+            return servicePrincipal.getoauth2Permissions() != null;
+        }
+    };
+
+    // the request machinery and the caches read the tuning settings and the directory cache lives under the
+    // IDE's system path, so they are set up on first use rather than by getManager(), which holds the class
+    // lock; the JVM initializes each holder the first time it is referenced
+    private static class RequestPipeline {
+        static final BoundedRequestExecutor requestExecutor = new BoundedRequestExecutor(
+                Office365ManagerSettings.getMaxConcurrentRequests(),
+                Office365ManagerSettings.getRequestQueueCapacity());
+        static final PriorityRequestScheduler requestScheduler = new PriorityRequestScheduler(
+                new TokenBucket(Office365ManagerSettings.getRequestsPerSecond(), Office365ManagerSettings.getRequestBurst()),
+                Office365ManagerSettings.getRequestQueueCapacity());
+        static final RetryingRequestExecutor retryingExecutor = new RetryingRequestExecutor(
+                Office365ManagerSettings.getMaxRetries(), requestScheduler);
+        // each kind of read judges what is slow from reads of its own kind
+        static final HedgingRequestExecutor hedgedApplicationReads = newHedgingExecutor();
+        static final HedgingRequestExecutor hedgedApplicationSearches = newHedgingExecutor();
+        static final HedgingRequestExecutor hedgedProjectApplicationQueries = newHedgingExecutor();
+        static final HedgingRequestExecutor hedgedServicePrincipalQueries = newHedgingExecutor();
+        static final HedgingRequestExecutor hedgedPermissionGrantReads = newHedgingExecutor();
+        static final HedgingRequestExecutor hedgedObjectReads = newHedgingExecutor();
+
+        static final HedgingRequestExecutor[] hedgingExecutors = new HedgingRequestExecutor[]{
+                hedgedApplicationReads,
+                hedgedApplicationSearches,
+                hedgedProjectApplicationQueries,
+                hedgedServicePrincipalQueries,
+                hedgedPermissionGrantReads,
+                hedgedObjectReads
+        };
+
+        private static HedgingRequestExecutor newHedgingExecutor() {
+            return new HedgingRequestExecutor(Office365ManagerSettings.getHedgePercentile(), requestScheduler);
+        }
+    }
+
+    private static class DirectoryCaches {
+        static final DirectoryObjectCache objectCache = new DirectoryObjectCache(
+                Office365ManagerSettings.getObjectCacheMaxBytes(),
+                Office365ManagerSettings.getObjectCacheTtl(TimeUnit.SECONDS),
+                TimeUnit.SECONDS);
+        static final PersistentDirectoryCache directoryCache = new PersistentDirectoryCache(
+                new File(PathManager.getSystemPath(), DIRECTORY_CACHE_PATH),
+                Office365ManagerSettings.getDirectoryCacheMaxBytes());
+    }
 
     private AADManager aadManager;
 
-    private ReentrantReadWriteLock authDataLock = new ReentrantReadWriteLock(false);
+    // stays empty until first used; the saved user is only read from the IDE settings then
+    private final AtomicReference<AuthState> authState = new AtomicReference<AuthState>();
+    private final AtomicReference<ListenableFuture<String>> tokenRenewal = new AtomicReference<ListenableFuture<String>>();
+    private final WriteBehindProperty userInfoProperty = new WriteBehindProperty(
+            AppSettingsNames.O365_USER_INFO, USER_INFO_WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+
+    private final CachedFuture<List<ServicePrincipal>> o365ServicePrincipals = new CachedFuture<List<ServicePrincipal>>();
+    private final AtomicReference<PermissionCatalog> permissionCatalog = new AtomicReference<PermissionCatalog>(PermissionCatalog.EMPTY);
+    private final SingleFlight<String, String> inFlightReads = new SingleFlight<String, String>();
+    private final Cache<String, ApplicationSnapshot> applicationSnapshots =
+            CacheBuilder.newBuilder().maximumSize(APPLICATION_SNAPSHOTS_MAX).<String, ApplicationSnapshot>build();
+
+    // collection fetchers are stateful builders so paged reads ask for a fresh one for every request
+    private final Supplier<ODataCollectionFetcher<Application, ApplicationFetcher, ApplicationCollectionOperations>> applications =
+            new Supplier<ODataCollectionFetcher<Application, ApplicationFetcher, ApplicationCollectionOperations>>() {
+                @Override
+                public ODataCollectionFetcher<Application, ApplicationFetcher, ApplicationCollectionOperations> get() {
+                    return getDirectoryClient().getapplications();
+                }
+            };
 
-    private UserInfo userInfo;
-    private String accessToken;
-    private DirectoryClient directoryDataServiceClient;
+    private final Supplier<ODataCollectionFetcher<ServicePrincipal, ServicePrincipalFetcher, ServicePrincipalCollectionOperations>> servicePrincipals =
+            new Supplier<ODataCollectionFetcher<ServicePrincipal, ServicePrincipalFetcher, ServicePrincipalCollectionOperations>>() {
+                @Override
+                public ODataCollectionFetcher<ServicePrincipal, ServicePrincipalFetcher, ServicePrincipalCollectionOperations> get() {
+                    return getDirectoryClient().getservicePrincipals();
+                }
+            };
 
     private Office365ManagerImpl() {
         aadManager = AADManagerImpl.getManager();
-
-        String json = DefaultLoader.getIdeHelper().getProperty(AppSettingsNames.O365_USER_INFO);
-
-        if (!StringHelper.isNullOrWhiteSpace(json)) {
-            try {
-                UserInfo userInfo = gson.fromJson(json, UserInfo.class);
-                setUserInfo(userInfo);
-            } catch (JsonSyntaxException ignored) {
-                DefaultLoader.getIdeHelper().unsetProperty(AppSettingsNames.O365_USER_INFO);
-            }
-        }
     }
 
     @NotNull
@@ -118,325 +327,1255 @@ public class Office365ManagerImpl implements Office365Manager {
         return getUserInfo() != null;
     }
 
+    @Override
+    public boolean hasUsableToken() {
+        AuthState state = getAuthState();
+        long now = System.currentTimeMillis();
+
+        return state.hasUsableToken(now) && !state.isTokenDueForRenewal(now);
+    }
+
     @Override
     public void clearAuthentication() {
         setUserInfo(null);
+        DirectoryCaches.directoryCache.clear();
     }
 
     @NotNull
     @Override
     public ListenableFuture<List<Application>> getApplicationList() {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<Application>>>() {
+        return withDeadline(new Supplier<ListenableFuture<List<Application>>>() {
             @Override
-            public ListenableFuture<List<Application>> execute()
-                    throws Throwable {
-                return getAllObjects(getDirectoryClient().getapplications());
+            public ListenableFuture<List<Application>> get() {
+                ListenableFuture<List<Application>> future = getAllObjects(applications, Application.class, IS_APPLICATION_COMPLETE);
+
+                Futures.addCallback(future, new FutureCallback<List<Application>>() {
+                    @Override
+                    public void onSuccess(List<Application> applications) {
+                        persistApplications(applications);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                    }
+                });
+
+                return future;
             }
         });
     }
 
+    @Nullable
     @Override
+    public List<ApplicationSummary> getCachedApplicationSummaries() {
+        UserInfo userInfo = getUserInfo();
+        if (userInfo == null) {
+            return null;
+        }
+
+        List<String> records = DirectoryCaches.directoryCache.read(userInfo.getTenantId(), PersistentDirectoryCache.APPLICATION_SUMMARIES);
+        if (records == null) {
+            return null;
+        }
+
+        try {
+            List<ApplicationSummary> applications = Lists.newArrayListWithCapacity(records.size());
+            for (String record : records) {
+                applications.add(jsonSerializer.deserialize(record, ApplicationSummary.class));
+            }
+
+            return applications;
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+
     @NotNull
-    public ListenableFuture<Application> getApplicationByObjectId(@NotNull final String objectId) {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<Application>>() {
+    @Override
+    public ListenableFuture<Integer> getApplicationPages(@NotNull final PageCallback<Application> callback) {
+        return withDeadline(new Supplier<ListenableFuture<Integer>>() {
             @Override
-            public ListenableFuture<Application> execute()
-                    throws Throwable {
-                return getDirectoryClient().getapplications().getById(objectId).read();
+            public ListenableFuture<Integer> get() {
+                // hold on to what we stream so that a complete listing can be saved to disk
+                final List<Application> applicationList = Lists.newArrayList();
+                final PageCallback<Application> persistingCallback = new PageCallback<Application>() {
+                    @Override
+                    public void onPage(@NotNull List<Application> page) {
+                        applicationList.addAll(page);
+                        callback.onPage(page);
+                    }
+                };
+
+                ListenableFuture<Integer> future = readPages(applications, Application.class, IS_APPLICATION_COMPLETE,
+                        persistingCallback, null, 0);
+
+                Futures.addCallback(future, new FutureCallback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer count) {
+                        persistApplications(applicationList);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                    }
+                });
+
+                return future;
             }
         });
     }
 
-    @Override
     @NotNull
-    public ListenableFuture<List<ServicePermissionEntry>> getO365PermissionsForApp(@NotNull final String objectId) {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePermissionEntry>>>() {
+    @Override
+    public ListenableFuture<List<ApplicationSummary>> searchApplications(@NotNull final String prefix, final int top) {
+        return withDeadline(new Supplier<ListenableFuture<List<ApplicationSummary>>>() {
             @Override
-            public ListenableFuture<List<ServicePermissionEntry>> execute()
-                    throws Throwable {
-                return Futures.transform(getApplicationByObjectId(objectId),
-                        new AsyncFunction<Application, List<ServicePermissionEntry>>() {
-                            @Override
-                            public ListenableFuture<List<ServicePermissionEntry>> apply(Application application) throws Exception {
-
-                                final String[] filterAppIds = new String[]{
-                                        ServiceAppIds.SHARE_POINT,
-                                        ServiceAppIds.EXCHANGE,
-                                        ServiceAppIds.AZURE_ACTIVE_DIRECTORY
-                                };
+            public ListenableFuture<List<ApplicationSummary>> get() {
+                // quotes in OData string literals are escaped by doubling them
+                final String filter = "startswith(displayName,'" + prefix.replace("'", "''") + "')";
 
-                                // build initial list of permission from the app's permissions
-                                final List<ServicePermissionEntry> servicePermissions = getO365PermissionsFromResourceAccess(application.getrequiredResourceAccess(), filterAppIds);
-
-                                // get permissions list from O365 service principals
-                                return Futures.transform(getServicePrincipalsForO365(), new AsyncFunction<List<ServicePrincipal>, List<ServicePermissionEntry>>() {
-                                    @Override
-                                    public ListenableFuture<List<ServicePermissionEntry>> apply(List<ServicePrincipal> servicePrincipals) throws Exception {
+                return deserializeList(readCoalesced("applications?$filter=" + filter + "&$top=" + top + "&$select=" + ApplicationSummary.SELECT,
+                        RequestPipeline.hedgedApplicationSearches,
+                        new RequestCallback<ListenableFuture<String>>() {
+                            @Override
+                            public ListenableFuture<String> execute()
+                                    throws Throwable {
+                                return getDirectoryClient().
+                                        getapplications().
+                                        filter(filter).
+                                        top(top).
+                                        select(ApplicationSummary.SELECT).
+                                        readRaw();
+                            }
+                        }), ApplicationSummary.class);
+            }
+        });
+    }
 
-                                        for (final ServicePrincipal servicePrincipal : servicePrincipals) {
-                                            // lookup this service principal in app's list of resources; if it's not found add an entry
-                                            ServicePermissionEntry servicePermissionEntry = Iterables.find(servicePermissions, new Predicate<ServicePermissionEntry>() {
-                                                @Override
-                                                public boolean apply(ServicePermissionEntry servicePermissionEntry) {
-                                                    return servicePermissionEntry.getKey().getId().equals(servicePrincipal.getappId());
-                                                }
-                                            }, null);
+    @NotNull
+    @Override
+    public ListenableFuture<Integer> getApplicationSummaryPages(@NotNull final PageCallback<ApplicationSummary> callback) {
+        return withDeadline(new Supplier<ListenableFuture<Integer>>() {
+            @Override
+            public ListenableFuture<Integer> get() {
+                // hold on to what we stream so that a complete listing can be saved to disk; the summaries are no base
+                // for a delta refresh, so they go in a section of their own and the full applications along with their
+                // delta link are left as they are
+                final List<String> records = Lists.newArrayList();
+                final PageCallback<ApplicationSummary> persistingCallback = new PageCallback<ApplicationSummary>() {
+                    @Override
+                    public void onPage(@NotNull List<ApplicationSummary> page) {
+                        for (ApplicationSummary summary : page) {
+                            records.add(jsonSerializer.serialize(summary));
+                        }
+                        callback.onPage(page);
+                    }
+                };
 
-                                            if (servicePermissionEntry == null) {
-                                                servicePermissions.add(servicePermissionEntry = new ServicePermissionEntry(
-                                                        new Office365Service(),
-                                                        new Office365PermissionList()
-                                                ));
-                                            }
+                ListenableFuture<Integer> future = readSummaryPages(persistingCallback, null, 0);
 
-                                            Office365Service service = servicePermissionEntry.getKey();
-                                            Office365PermissionList permissionList = servicePermissionEntry.getValue();
-                                            service.setId(servicePrincipal.getappId());
-                                            service.setName(servicePrincipal.getdisplayName());
-
-                                            List<OAuth2Permission> permissions = servicePrincipal.getoauth2Permissions();
-                                            for (final OAuth2Permission permission : permissions) {
-                                                // lookup permission in permissionList
-                                                Office365Permission office365Permission = Iterables.find(permissionList, new Predicate<Office365Permission>() {
-                                                    @Override
-                                                    public boolean apply(Office365Permission office365Permission) {
-                                                        return office365Permission.getId().equals(permission.getid().toString());
-                                                    }
-                                                }, null);
-
-                                                if (office365Permission == null) {
-                                                    permissionList.add(office365Permission = new Office365Permission());
-                                                    office365Permission.setEnabled(false);
-                                                }
+                Futures.addCallback(future, new FutureCallback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer count) {
+                        UserInfo userInfo = getUserInfo();
+                        if (userInfo != null) {
+                            DirectoryCaches.directoryCache.write(userInfo.getTenantId(),
+                                    PersistentDirectoryCache.APPLICATION_SUMMARIES, records);
+                        }
+                    }
 
-                                                office365Permission.setId(permission.getid().toString());
-                                                office365Permission.setName(getPermissionDisplayName(permission.getvalue()));
-                                                office365Permission.setDescription(permission.getuserConsentDisplayName());
-                                            }
-                                        }
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                    }
+                });
 
-                                        return Futures.immediateFuture(servicePermissions);
-                                    }
-                                });
-                            }
-                        });
+                return future;
             }
         });
     }
 
-    private String getPermissionDisplayName(String displayName) {
-        // replace '.' and '_' with space characters and title case the display name
-        return Joiner.on(' ').
-                join(Iterables.transform(
-                                Splitter.on(' ').split(
-                                        CharMatcher.anyOf("._").
-                                                replaceFrom(displayName, ' ')),
-                                new Function<String, String>() {
-                                    @Override
-                                    public String apply(String str) {
-                                        return Character.toUpperCase(str.charAt(0)) + str.substring(1);
-                                    }
-                                }
-                        )
-                );
-    }
+    @NotNull
+    private ListenableFuture<Integer> readSummaryPages(@NotNull final PageCallback<ApplicationSummary> callback,
+                                                       @Nullable String skipToken,
+                                                       final int count) {
+        Supplier<ODataCollectionFetcher<Application, ApplicationFetcher, ApplicationCollectionOperations>> fetcherSupplier =
+                new Supplier<ODataCollectionFetcher<Application, ApplicationFetcher, ApplicationCollectionOperations>>() {
+                    @Override
+                    public ODataCollectionFetcher<Application, ApplicationFetcher, ApplicationCollectionOperations> get() {
+                        return getDirectoryClient().getapplications().select(ApplicationSummary.SELECT);
+                    }
+                };
 
-    private List<ServicePermissionEntry> getO365PermissionsFromResourceAccess(
-            List<RequiredResourceAccess> requiredResourceAccesses,
-            String[] filterAppIds) {
+        // a projection has nothing left to complete, so each page is a single request
+        ListenableFuture<CollectionPage<ApplicationSummary>> future = readPage(fetcherSupplier, ApplicationSummary.class, skipToken);
 
-        List<ServicePermissionEntry> entryList = Lists.newArrayList();
-        if (requiredResourceAccesses == null) {
-            return entryList;
-        }
+        return Futures.transform(future, inCurrentCall(new AsyncFunction<CollectionPage<ApplicationSummary>, Integer>() {
+            @Override
+            public ListenableFuture<Integer> apply(CollectionPage<ApplicationSummary> page) throws Exception {
+                callback.onPage(page.getItems());
 
-        for (final RequiredResourceAccess requiredResourceAccess : requiredResourceAccesses) {
-            // we're interested in this resource only if it is one of the app id's in "filterAppIds"
-            boolean isO365Resource = Iterators.any(Iterators.forArray(filterAppIds), new Predicate<String>() {
-                @Override
-                public boolean apply(String appId) {
-                    return requiredResourceAccess.getresourceAppId().equals(appId);
+                if (page.hasMore()) {
+                    return readSummaryPages(callback, page.getSkipToken(), count + page.getItems().size());
                 }
-            });
-            if (!isO365Resource) {
-                continue;
+
+                return Futures.immediateFuture(count + page.getItems().size());
             }
+        }));
+    }
 
-            Office365Service service = new Office365Service();
-            Office365PermissionList permissions = new Office365PermissionList();
-            entryList.add(new ServicePermissionEntry(service, permissions));
+    private void persistApplications(@NotNull List<Application> applications) {
+        UserInfo userInfo = getUserInfo();
+        if (userInfo == null) {
+            return;
+        }
 
-            service.setId(requiredResourceAccess.getresourceAppId());
-            List<ResourceAccess> resourceAccesses = requiredResourceAccess.getresourceAccess();
-            if (resourceAccesses == null) {
-                continue;
-            }
-            for (ResourceAccess resourceAccess : resourceAccesses) {
-                Office365Permission permission = new Office365Permission(
-                        resourceAccess.getid().toString(),
-                        "", "",
-                        resourceAccess.gettype().equals("Scope")
-                );
-                permissions.add(permission);
-            }
+        List<String> records = Lists.newArrayListWithCapacity(applications.size());
+        for (Application application : applications) {
+            records.add(jsonSerializer.serialize(application));
         }
 
-        return entryList;
+        // a delta link saved earlier describes the records this listing replaces, not these; a full listing
+        // comes without a link of its own, so the next delta refresh starts over
+        Map<String, List<String>> sections = Maps.newHashMap();
+        sections.put(PersistentDirectoryCache.APPLICATIONS, records);
+        sections.put(PersistentDirectoryCache.APPLICATIONS_DELTA_LINK, Collections.<String>emptyList());
+        sections.put(PersistentDirectoryCache.APPLICATION_SUMMARIES, toSummaryRecords(applications));
+        DirectoryCaches.directoryCache.write(userInfo.getTenantId(), sections);
     }
 
-    @Override
+    // the saved summaries are replaced whenever the full applications are, so that the app picker never
+    // starts from a listing older than what we have
     @NotNull
-    public ListenableFuture<Application> setO365PermissionsForApp(
-            @NotNull Application application,
-            @NotNull List<ServicePermissionEntry> permissionEntryList) {
-        List<RequiredResourceAccess> requiredResourceAccesses = application.getrequiredResourceAccess();
-        if (requiredResourceAccesses == null) {
-            application.setrequiredResourceAccess(requiredResourceAccesses = Lists.newArrayList());
+    private static List<String> toSummaryRecords(@NotNull List<Application> applications) {
+        List<String> records = Lists.newArrayListWithCapacity(applications.size());
+
+        for (Application application : applications) {
+            records.add(jsonSerializer.serialize(new ApplicationSummary(
+                    application.getobjectId(), application.getappId(), application.getdisplayName())));
         }
 
-        for (ServicePermissionEntry permissionEntry : permissionEntryList) {
-            final Office365Service service = permissionEntry.getKey();
+        return records;
+    }
 
-            // filter permissions for enabled permissions
-            Iterable<Office365Permission> permissionList = Iterables.filter(permissionEntry.getValue(),
-                    new Predicate<Office365Permission>() {
-                        @Override
-                        public boolean apply(Office365Permission office365Permission) {
-                            return office365Permission.isEnabled();
-                        }
-                    });
+    @NotNull
+    @Override
+    public ListenableFuture<List<Application>> refreshApplicationList() {
+        return withDeadline(new Supplier<ListenableFuture<List<Application>>>() {
+            @Override
+            public ListenableFuture<List<Application>> get() {
+                ListenableFuture<List<Application>> future = syncDelta(APPLICATION_TYPE, PersistentDirectoryCache.APPLICATIONS,
+                        PersistentDirectoryCache.APPLICATIONS_DELTA_LINK, Application.class);
 
-            // transform Office365Permission objects into ResourceAccess objects
-            List<ResourceAccess> resourceAccessList = Lists.newArrayList(Iterables.transform(permissionList,
-                    new Function<Office365Permission, ResourceAccess>() {
-                        @Override
-                        public ResourceAccess apply(Office365Permission office365Permission) {
-                            ResourceAccess resourceAccess = new ResourceAccess();
-                            resourceAccess.setid(UUID.fromString(office365Permission.getId()));
-                            resourceAccess.settype("Scope");
-                            return resourceAccess;
+                Futures.addCallback(future, new FutureCallback<List<Application>>() {
+                    @Override
+                    public void onSuccess(List<Application> applications) {
+                        UserInfo userInfo = getUserInfo();
+                        if (userInfo != null) {
+                            DirectoryCaches.directoryCache.write(userInfo.getTenantId(),
+                                    PersistentDirectoryCache.APPLICATION_SUMMARIES, toSummaryRecords(applications));
                         }
-                    }));
+                    }
 
-            // get reference to service from app in case it exists
-            RequiredResourceAccess requiredResourceAccess = Iterables.find(requiredResourceAccesses, new Predicate<RequiredResourceAccess>() {
-                @Override
-                public boolean apply(RequiredResourceAccess requiredResourceAccess) {
-                    return requiredResourceAccess.getresourceAppId().equals(service.getId());
-                }
-            }, null);
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                    }
+                });
 
-            if (requiredResourceAccess == null && !resourceAccessList.isEmpty()) {
-                requiredResourceAccesses.add(requiredResourceAccess = new RequiredResourceAccess());
-                requiredResourceAccess.setresourceAppId(service.getId());
+                return future;
             }
+        });
+    }
 
-            if (requiredResourceAccess != null) {
-                if (resourceAccessList.isEmpty()) {
-                    // remove requiredResourceAccess from requiredResourceAccesses
-                    requiredResourceAccesses.remove(requiredResourceAccess);
-                } else {
-                    requiredResourceAccess.setresourceAccess(resourceAccessList);
-                }
-            }
-        }
+    // a delta round brings the full applications, so the summaries are listed again instead; the listing
+    // asks for just what a summary holds and saves it to disk
+    @NotNull
+    @Override
+    public ListenableFuture<List<ApplicationSummary>> refreshApplicationSummaries() {
+        return withDeadline(new Supplier<ListenableFuture<List<ApplicationSummary>>>() {
+            @Override
+            public ListenableFuture<List<ApplicationSummary>> get() {
+                final List<ApplicationSummary> summaries = Lists.newArrayList();
 
-        return updateApplication(application);
+                ListenableFuture<Integer> future = getApplicationSummaryPages(new PageCallback<ApplicationSummary>() {
+                    @Override
+                    public void onPage(@NotNull List<ApplicationSummary> page) {
+                        summaries.addAll(page);
+                    }
+                });
+
+                return Futures.transform(future, new Function<Integer, List<ApplicationSummary>>() {
+                    @Override
+                    public List<ApplicationSummary> apply(Integer count) {
+                        return summaries;
+                    }
+                });
+            }
+        });
     }
 
     @Override
     @NotNull
-    public ListenableFuture<Application> updateApplication(@NotNull final Application application) {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<Application>>() {
+    public ListenableFuture<Application> getApplicationByObjectId(@NotNull final String objectId) {
+        return withDeadline(new Supplier<ListenableFuture<Application>>() {
             @Override
-            public ListenableFuture<Application> execute()
-                    throws Throwable {
-                ApplicationFetcher appFetcher = getDirectoryClient().getapplications().getById(application.getobjectId());
-                return appFetcher.update(application);
+            public ListenableFuture<Application> get() {
+                final String cached = DirectoryCaches.objectCache.getObject(objectId);
+                ListenableFuture<String> payload = cached != null ? Futures.immediateFuture(cached) : readApplication(objectId);
+
+                return Futures.transform(payload, new AsyncFunction<String, Application>() {
+                    @Override
+                    public ListenableFuture<Application> apply(String payload) throws Exception {
+                        try {
+                            // remember what we handed out so that saving it later sends only what the caller changed
+                            Application application = jsonSerializer.deserialize(payload, Application.class);
+                            applicationSnapshots.put(objectId, snapshotApplication(application, payload));
+
+                            if (cached == null) {
+                                DirectoryCaches.objectCache.putApplication(objectId, application.getappId(), payload);
+                            }
+
+                            return Futures.immediateFuture(application);
+                        } catch (Throwable throwable) {
+                            return Futures.immediateFailedFuture(throwable);
+                        }
+                    }
+                });
             }
         });
     }
 
-    @Override
     @NotNull
-    public ListenableFuture<List<ServicePrincipal>> getServicePrincipals() {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+    private ListenableFuture<String> readApplication(@NotNull final String objectId) {
+        return readCoalesced("applications/" + objectId, RequestPipeline.hedgedApplicationReads, new RequestCallback<ListenableFuture<String>>() {
             @Override
-            public ListenableFuture<List<ServicePrincipal>> execute()
+            public ListenableFuture<String> execute()
                     throws Throwable {
-                return getAllObjects(getDirectoryClient().getservicePrincipals());
+                return getDirectoryClient().getapplications().getById(objectId).readRaw();
             }
         });
     }
 
+    @NotNull
+    private ApplicationSnapshot snapshotApplication(@NotNull Application application, @Nullable String payload) {
+        JsonParser parser = new JsonParser();
+        String etag = null;
+
+        if (payload != null) {
+            JsonElement etagElement = parser.parse(payload).getAsJsonObject().get("odata.etag");
+            if (etagElement != null && etagElement.isJsonPrimitive()) {
+                etag = etagElement.getAsString();
+            }
+        }
+
+        return new ApplicationSnapshot(parser.parse(jsonSerializer.serialize(application)).getAsJsonObject(), etag);
+    }
+
     @Override
     @NotNull
-    public ListenableFuture<List<ServicePrincipal>> getServicePrincipalsForO365() {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+    public ListenableFuture<List<ServicePermissionEntry>> getO365PermissionsForApp(@NotNull final String objectId) {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePermissionEntry>>>() {
             @Override
-            public ListenableFuture<List<ServicePrincipal>> execute()
-                    throws Throwable {
-                // build the filter
-                String[] appIds = new String[]{
-                        ServiceAppIds.AZURE_ACTIVE_DIRECTORY,
-                        ServiceAppIds.EXCHANGE,
-                        ServiceAppIds.SHARE_POINT
-                };
-                String filter = "appId eq '" + Joiner.on("' or appId eq '").join(appIds) + "'";
-                return getDirectoryClient().getservicePrincipals().filter(filter).read();
+            public ListenableFuture<List<ServicePermissionEntry>> get() {
+                // the names and descriptions come from the catalog shared by all apps; the app only contributes which
+                // of the permissions it has. Both are asked for right away rather than the catalog once the app is in
+                final ListenableFuture<PermissionCatalog> catalog = getPermissionCatalog();
+
+                return Futures.transform(getApplicationByObjectId(objectId),
+                        new AsyncFunction<Application, List<ServicePermissionEntry>>() {
+                            @Override
+                            public ListenableFuture<List<ServicePermissionEntry>> apply(final Application application) throws Exception {
+                                return Futures.transform(catalog, new Function<PermissionCatalog, List<ServicePermissionEntry>>() {
+                                    @Override
+                                    public List<ServicePermissionEntry> apply(PermissionCatalog catalog) {
+                                        return PermissionMatrix.fromResourceAccess(catalog,
+                                                application.getrequiredResourceAccess(),
+                                                O365_SERVICE_APP_IDS).toEntries();
+                                    }
+                                });
+                            }
+                        });
             }
         });
     }
 
-    private <T> ListenableFuture<T> getFirstItem(ListenableFuture<List<T>> future) {
-        return Futures.transform(future, new AsyncFunction<List<T>, T>() {
+    @NotNull
+    private ListenableFuture<PermissionCatalog> getPermissionCatalog() {
+        return Futures.transform(getServicePrincipalsForO365(), new Function<List<ServicePrincipal>, PermissionCatalog>() {
             @Override
-            public ListenableFuture<T> apply(List<T> items) throws Exception {
-                return Futures.immediateFuture((items != null && items.size() > 0) ? items.get(0) : null);
+            public PermissionCatalog apply(List<ServicePrincipal> servicePrincipals) {
+                PermissionCatalog catalog = permissionCatalog.get();
+
+                // the catalog is rebuilt only when the service principals it came from get reloaded
+                if (!catalog.isCreatedFrom(servicePrincipals)) {
+                    catalog = PermissionCatalog.create(servicePrincipals);
+                    permissionCatalog.set(catalog);
+                }
+
+                return catalog;
             }
         });
     }
 
     @Override
     @NotNull
-    public ListenableFuture<List<OAuth2PermissionGrant>> getPermissionGrants() {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<OAuth2PermissionGrant>>>() {
+    public ListenableFuture<Application> setO365PermissionsForApp(
+            @NotNull final Application application,
+            @NotNull final List<ServicePermissionEntry> permissionEntryList) {
+        return withDeadline(new Supplier<ListenableFuture<Application>>() {
             @Override
-            public ListenableFuture<List<OAuth2PermissionGrant>> execute()
-                    throws Throwable {
-                return getDirectoryClient().getoauth2PermissionGrants().read();
+            public ListenableFuture<Application> get() {
+                // the entries normally come from getO365PermissionsForApp, which leaves the catalog built; any
+                // permission the catalog doesn't know about is carried by id instead
+                return setO365PermissionsForApp(application,
+                        PermissionMatrix.fromEntries(permissionCatalog.get(), permissionEntryList));
             }
         });
     }
 
-    private <E extends DirectoryObject, F extends ODataEntityFetcher<E, ? extends DirectoryObjectOperations>, O extends ODataOperations>
-    ListenableFuture<List<E>> getAllObjects(final ODataCollectionFetcher<E, F, O> fetcher) {
+    @NotNull
+    private ListenableFuture<Application> setO365PermissionsForApp(@NotNull Application application,
+                                                                   @NotNull PermissionMatrix permissions) {
+        List<RequiredResourceAccess> requiredResourceAccesses = application.getrequiredResourceAccess();
+        if (requiredResourceAccesses == null) {
+            application.setrequiredResourceAccess(requiredResourceAccesses = Lists.newArrayList());
+        }
+
+        Map<String, RequiredResourceAccess> requiredResourceAccessesByAppId = Maps.newHashMap();
+        for (RequiredResourceAccess requiredResourceAccess : requiredResourceAccesses) {
+            if (!requiredResourceAccessesByAppId.containsKey(requiredResourceAccess.getresourceAppId())) {
+                requiredResourceAccessesByAppId.put(requiredResourceAccess.getresourceAppId(), requiredResourceAccess);
+            }
+        }
+
+        PermissionMatrix current = PermissionMatrix.fromResourceAccess(
+                permissions.getCatalog(), requiredResourceAccesses, permissions.getServices());
+        boolean changed = false;
+
+        for (String appId : permissions.getServices()) {
+            // services whose permissions are already what they should be are left as they are
+            if (permissions.isSameFor(appId, current)) {
+                continue;
+            }
+
+            changed = true;
+            List<ResourceAccess> resourceAccessList = permissions.toResourceAccess(appId);
+
+            // get reference to service from app in case it exists
+            RequiredResourceAccess requiredResourceAccess = requiredResourceAccessesByAppId.get(appId);
+
+            if (requiredResourceAccess == null && !resourceAccessList.isEmpty()) {
+                requiredResourceAccesses.add(requiredResourceAccess = new RequiredResourceAccess());
+                requiredResourceAccess.setresourceAppId(appId);
+                requiredResourceAccessesByAppId.put(appId, requiredResourceAccess);
+            }
+
+            if (requiredResourceAccess != null) {
+                if (resourceAccessList.isEmpty()) {
+                    // remove requiredResourceAccess from requiredResourceAccesses
+                    requiredResourceAccesses.remove(requiredResourceAccess);
+                    requiredResourceAccessesByAppId.remove(appId);
+                } else {
+                    requiredResourceAccess.setresourceAccess(resourceAccessList);
+                }
+            }
+        }
+
+        if (!changed) {
+            return Futures.immediateFuture(application);
+        }
+
+        return updateApplication(application);
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<BulkPermissionResult> setO365PermissionsForApps(@NotNull final Collection<String> objectIds,
+                                                                            @NotNull final List<ServicePermissionEntry> permissionEntryList) {
+        return withDeadline(new Supplier<ListenableFuture<BulkPermissionResult>>() {
+            @Override
+            public ListenableFuture<BulkPermissionResult> get() {
+                // the permissions are turned into bits once for all of the applications; should the catalog fail to
+                // load they are carried by id instead, which works just as well
+                ListenableFuture<PermissionCatalog> catalog = Futures.withFallback(getPermissionCatalog(), new FutureFallback<PermissionCatalog>() {
+                    @Override
+                    public ListenableFuture<PermissionCatalog> create(@NotNull Throwable throwable) throws Exception {
+                        return Futures.immediateFuture(PermissionCatalog.EMPTY);
+                    }
+                });
+
+                return Futures.transform(catalog, inCurrentCall(new AsyncFunction<PermissionCatalog, BulkPermissionResult>() {
+                    @Override
+                    public ListenableFuture<BulkPermissionResult> apply(PermissionCatalog catalog) throws Exception {
+                        return setO365PermissionsForApps(objectIds, PermissionMatrix.fromEntries(catalog, permissionEntryList));
+                    }
+                }));
+            }
+        });
+    }
+
+    @NotNull
+    private ListenableFuture<BulkPermissionResult> setO365PermissionsForApps(@NotNull Collection<String> objectIds,
+                                                                             @NotNull final PermissionMatrix permissions) {
+        // each application goes from being read to being saved on its own instead of all of them being read
+        // first; the executor bounds how many are being worked on at a time and the requests go in the
+        // background lane so that they don't hold up anyone waiting in a dialog
+        Set<String> uniqueObjectIds = ImmutableSet.copyOf(objectIds);
+        final BoundedRequestExecutor executor = new BoundedRequestExecutor(
+                Office365ManagerSettings.getMaxConcurrentRequests(), uniqueObjectIds.size());
+        final Deadline deadline = Deadline.current();
+
+        final Map<String, ListenableFuture<Application>> futures = Maps.newLinkedHashMap();
+        for (final String objectId : uniqueObjectIds) {
+            futures.put(objectId, executor.submit(new Supplier<ListenableFuture<Application>>() {
+                @Override
+                public ListenableFuture<Application> get() {
+                    return callIn(RequestLane.BACKGROUND, deadline, new Supplier<ListenableFuture<Application>>() {
+                        @Override
+                        public ListenableFuture<Application> get() {
+                            return Futures.transform(getApplicationByObjectId(objectId), inCurrentCall(new AsyncFunction<Application, Application>() {
+                                @Override
+                                public ListenableFuture<Application> apply(Application application) throws Exception {
+                                    return setO365PermissionsForApp(application, permissions);
+                                }
+                            }));
+                        }
+                    });
+                }
+            }));
+        }
+
+        // the executor is ours alone, so its thread goes once every application has been dealt with
+        ListenableFuture<List<Application>> all = Futures.successfulAsList(futures.values());
+        all.addListener(new Runnable() {
+            @Override
+            public void run() {
+                executor.shutdown();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return Futures.transform(all, new Function<List<Application>, BulkPermissionResult>() {
+            @Override
+            public BulkPermissionResult apply(List<Application> applications) {
+                Map<String, Application> updated = Maps.newLinkedHashMap();
+                Map<String, Throwable> failed = Maps.newLinkedHashMap();
+
+                for (Map.Entry<String, ListenableFuture<Application>> entry : futures.entrySet()) {
+                    try {
+                        updated.put(entry.getKey(), Uninterruptibles.getUninterruptibly(entry.getValue()));
+                    } catch (ExecutionException e) {
+                        failed.put(entry.getKey(), e.getCause());
+                    } catch (CancellationException e) {
+                        failed.put(entry.getKey(), e);
+                    }
+                }
+
+                return new BulkPermissionResult(updated, failed);
+            }
+        });
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<Application> updateApplication(@NotNull final Application application) {
+        return withDeadline(new Supplier<ListenableFuture<Application>>() {
+            @Override
+            public ListenableFuture<Application> get() {
+                final String objectId = application.getobjectId();
+                final ApplicationSnapshot snapshot = applicationSnapshots.getIfPresent(objectId);
+
+                // without knowing what the application looked like we can only send all of it
+                if (snapshot == null) {
+                    return requestFutureWithToken(new RequestCallback<ListenableFuture<Application>>() {
+                        @Override
+                        public ListenableFuture<Application> execute()
+                                throws Throwable {
+                            ApplicationFetcher appFetcher = getDirectoryClient().getapplications().getById(objectId);
+
+                            // the directory answers an update without a body, so what it now holds is what we sent
+                            return Futures.transform(appFetcher.update(application), new Function<Application, Application>() {
+                                @Override
+                                public Application apply(Application updated) {
+                                    DirectoryCaches.objectCache.putApplication(objectId, application.getappId(),
+                                            jsonSerializer.serialize(application));
+                                    return updated;
+                                }
+                            });
+                        }
+                    });
+                }
+
+                final ApplicationSnapshot updated;
+                try {
+                    updated = snapshotApplication(application, null);
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+
+                final JsonObject changes = PropertyDiff.diff(snapshot.getState(), updated.getState());
+                if (changes.entrySet().isEmpty()) {
+                    return Futures.immediateFuture(application);
+                }
+
+                return patchApplication(application, snapshot, changes, true);
+            }
+        });
+    }
+
+    // sends the changes made against the given snapshot; when the directory reports that the application
+    // has changed since, the changes are rebased on its current state unless they touch something that
+    // someone else changed too
+    @NotNull
+    private ListenableFuture<Application> patchApplication(@NotNull final Application application,
+                                                           @NotNull final ApplicationSnapshot snapshot,
+                                                           @NotNull final JsonObject changes,
+                                                           final boolean rebase) {
+        final String objectId = application.getobjectId();
+
+        // a conditional PATCH is not replayed: had the first one gone through, the replay would fail its
+        // precondition against our own change
+        ListenableFuture<String> patched = requestFutureWithToken(new RequestCallback<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> execute()
+                    throws Throwable {
+                ApplicationFetcher appFetcher = getDirectoryClient().getapplications().getById(objectId);
+                if (snapshot.getEtag() != null) {
+                    appFetcher.addCustomHeader("If-Match", snapshot.getEtag());
+                }
+
+                return appFetcher.updateRaw(changes.toString());
+            }
+        }, false);
+
+        ListenableFuture<Application> future = Futures.transform(patched, new AsyncFunction<String, Application>() {
+            @Override
+            public ListenableFuture<Application> apply(String payload) throws Exception {
+                // what the directory now holds is what we patched plus our changes; the response doesn't carry
+                // the new etag so the next update goes out without one
+                JsonObject state = new JsonParser().parse(snapshot.getState().toString()).getAsJsonObject();
+                for (Map.Entry<String, JsonElement> property : changes.entrySet()) {
+                    if (property.getValue().isJsonNull()) {
+                        state.remove(property.getKey());
+                    } else {
+                        state.add(property.getKey(), property.getValue());
+                    }
+                }
+
+                applicationSnapshots.put(objectId, new ApplicationSnapshot(state, null));
+                DirectoryCaches.objectCache.putApplication(objectId, application.getappId(), state.toString());
+                return Futures.immediateFuture(application);
+            }
+        });
+
+        if (!rebase) {
+            return future;
+        }
+
+        return Futures.withFallback(future, inCurrentCall(new FutureFallback<Application>() {
+            @Override
+            public ListenableFuture<Application> create(@NotNull final Throwable throwable) throws Exception {
+                if (RetryingRequestExecutor.getStatus(throwable) != PRECONDITION_FAILED) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+
+                return Futures.transform(readApplication(objectId), new AsyncFunction<String, Application>() {
+                    @Override
+                    public ListenableFuture<Application> apply(String payload) throws Exception {
+                        ApplicationSnapshot latest;
+
+                        try {
+                            latest = snapshotApplication(jsonSerializer.deserialize(payload, Application.class), payload);
+                        } catch (Throwable parseError) {
+                            return Futures.immediateFailedFuture(parseError);
+                        }
+
+                        applicationSnapshots.put(objectId, latest);
+                        DirectoryCaches.objectCache.putApplication(objectId, application.getappId(), payload);
+
+                        if (PropertyDiff.conflicts(changes, snapshot.getState(), latest.getState())) {
+                            return Futures.immediateFailedFuture(new AzureCmdException(
+                                    "The application was changed by someone else while it was being edited", payload));
+                        }
+
+                        return patchApplication(application, latest, changes, false);
+                    }
+                });
+            }
+        }));
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<List<ServicePrincipal>> getServicePrincipals() {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePrincipal>>>() {
+            @Override
+            public ListenableFuture<List<ServicePrincipal>> get() {
+                return getAllObjects(servicePrincipals, ServicePrincipal.class, IS_SERVICE_PRINCIPAL_COMPLETE);
+            }
+        });
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<List<ServicePrincipal>> refreshServicePrincipalList() {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePrincipal>>>() {
+            @Override
+            public ListenableFuture<List<ServicePrincipal>> get() {
+                return syncDelta(SERVICE_PRINCIPAL_TYPE, PersistentDirectoryCache.SERVICE_PRINCIPALS,
+                        PersistentDirectoryCache.SERVICE_PRINCIPALS_DELTA_LINK, ServicePrincipal.class);
+            }
+        });
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<Integer> getServicePrincipalPages(@NotNull final PageCallback<ServicePrincipal> callback) {
+        return withDeadline(new Supplier<ListenableFuture<Integer>>() {
+            @Override
+            public ListenableFuture<Integer> get() {
+                return readPages(servicePrincipals, ServicePrincipal.class, IS_SERVICE_PRINCIPAL_COMPLETE, callback, null, 0);
+            }
+        });
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<List<ServicePrincipal>> getServicePrincipalsForO365() {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePrincipal>>>() {
+            @Override
+            public ListenableFuture<List<ServicePrincipal>> get() {
+                return getServicePrincipalsForO365(null);
+            }
+        });
+    }
+
+    // when a batch is given and the catalog has to be (re)loaded the query is queued on it; the caller is
+    // responsible for executing the batch
+    @NotNull
+    private ListenableFuture<List<ServicePrincipal>> getServicePrincipalsForO365(@Nullable final DirectoryBatch batch) {
+        final UserInfo userInfo = getUserInfo();
+
+        // start from the copy saved by a previous session, if any; it gets revalidated in the background
+        if (userInfo != null && o365ServicePrincipals.isEmpty()) {
+            List<String> records = DirectoryCaches.directoryCache.read(userInfo.getTenantId(),
+                    PersistentDirectoryCache.O365_SERVICE_PRINCIPALS);
+
+            if (records != null && records.size() == 1) {
+                try {
+                    String payload = records.get(0);
+                    o365ServicePrincipals.prime(
+                            Collections.unmodifiableList(ODataEntityReader.readList(payload, ServicePrincipal.class)),
+                            payload);
+                } catch (Throwable ignored) {
+                }
+            }
+        }
+
+        return o365ServicePrincipals.get(
+                Office365ManagerSettings.getCatalogCacheTtl(TimeUnit.MILLISECONDS),
+                TimeUnit.MILLISECONDS,
+                new CachedFuture.Loader<List<ServicePrincipal>>() {
+                    @NotNull
+                    @Override
+                    public ListenableFuture<String> load() {
+                        if (batch != null) {
+                            return batch.queryRaw(SERVICE_PRINCIPALS, O365_SERVICE_PRINCIPALS_FILTER);
+                        }
+
+                        return requestFutureWithToken(new RequestCallback<ListenableFuture<String>>() {
+                            @Override
+                            public ListenableFuture<String> execute()
+                                    throws Throwable {
+                                return getDirectoryClient().getservicePrincipals().filter(O365_SERVICE_PRINCIPALS_FILTER).readRaw();
+                            }
+                        });
+                    }
+
+                    @NotNull
+                    @Override
+                    public List<ServicePrincipal> materialize(@NotNull String payload) throws Throwable {
+                        List<ServicePrincipal> servicePrincipals = ODataEntityReader.readList(payload, ServicePrincipal.class);
+
+                        if (userInfo != null) {
+                            DirectoryCaches.directoryCache.write(userInfo.getTenantId(),
+                                    PersistentDirectoryCache.O365_SERVICE_PRINCIPALS,
+                                    Collections.singletonList(payload));
+                        }
+
+                        return Collections.unmodifiableList(servicePrincipals);
+                    }
+                });
+    }
+
+    @Override
+    public void invalidateServicePrincipalsForO365() {
+        o365ServicePrincipals.invalidate();
+    }
+
+    public long getCatalogCacheHitCount() {
+        return o365ServicePrincipals.getHitCount();
+    }
+
+    public long getCatalogCacheMissCount() {
+        return o365ServicePrincipals.getMissCount();
+    }
+
+    public long getObjectCacheHitCount() {
+        return DirectoryCaches.objectCache.getHitCount();
+    }
+
+    public long getObjectCacheMissCount() {
+        return DirectoryCaches.objectCache.getMissCount();
+    }
+
+    public long getCoalescedReadCount() {
+        return inFlightReads.getCoalescedCount();
+    }
+
+    public int getActiveRequestCount() {
+        return RequestPipeline.requestExecutor.getActiveCount();
+    }
+
+    public int getQueuedRequestCount() {
+        return RequestPipeline.requestExecutor.getQueueDepth();
+    }
+
+    public long getRejectedRequestCount() {
+        return RequestPipeline.requestExecutor.getRejectedCount();
+    }
+
+    public long getRetriedRequestCount() {
+        return RequestPipeline.retryingExecutor.getRetryCount();
+    }
+
+    public long getThrottledRequestCount() {
+        return RequestPipeline.retryingExecutor.getThrottledCount();
+    }
+
+    public long getHedgedRequestCount() {
+        long count = 0;
+        for (HedgingRequestExecutor executor : RequestPipeline.hedgingExecutors) {
+            count += executor.getHedgedCount();
+        }
+
+        return count;
+    }
+
+    public long getHedgeWinCount() {
+        long count = 0;
+        for (HedgingRequestExecutor executor : RequestPipeline.hedgingExecutors) {
+            count += executor.getHedgeWinCount();
+        }
+
+        return count;
+    }
+
+    public long getDeadlineMissCount() {
+        return Deadline.getMissCount();
+    }
+
+    @NotNull
+    public PriorityRequestScheduler.LaneStats getRequestLaneStats(@NotNull RequestLane lane) {
+        return RequestPipeline.requestScheduler.getStats(lane);
+    }
+
+    // identical reads that are in flight at the same time share a single request; the payload is what gets
+    // shared and every caller materializes entities of its own from it, so callers remain free to modify them
+    @NotNull
+    private ListenableFuture<String> readCoalesced(@NotNull String query,
+                                                  @NotNull final HedgingRequestExecutor hedgingExecutor,
+                                                  @NotNull final RequestCallback<ListenableFuture<String>> read) {
+        // requests made on behalf of different users never share a result
+        UserInfo userInfo = getUserInfo();
+        String scope = (userInfo != null) ? userInfo.getTenantId() + "/" + userInfo.getUniqueName() : "";
+
+        return inFlightReads.get(scope + "|" + query, new Supplier<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> get() {
+                return requestFutureWithToken(hedged(hedgingExecutor, read));
+            }
+        });
+    }
+
+    @NotNull
+    private static <E> ListenableFuture<E> deserialize(@NotNull ListenableFuture<String> payload, @NotNull final Class<E> clazz) {
+        return Futures.transform(payload, new AsyncFunction<String, E>() {
+            @Override
+            public ListenableFuture<E> apply(String payload) throws Exception {
+                try {
+                    return Futures.immediateFuture(jsonSerializer.deserialize(payload, clazz));
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
+    }
+
+    @NotNull
+    private static <E> ListenableFuture<List<E>> deserializeList(@NotNull ListenableFuture<String> payload, @NotNull final Class<E> clazz) {
+        return Futures.transform(payload, new AsyncFunction<String, List<E>>() {
+            @Override
+            public ListenableFuture<List<E>> apply(String payload) throws Exception {
+                try {
+                    return Futures.immediateFuture(ODataEntityReader.readList(payload, clazz));
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
+    }
+
+    private <T> ListenableFuture<T> getFirstItem(ListenableFuture<List<T>> future) {
+        return Futures.transform(future, new AsyncFunction<List<T>, T>() {
+            @Override
+            public ListenableFuture<T> apply(List<T> items) throws Exception {
+                return Futures.immediateFuture((items != null && items.size() > 0) ? items.get(0) : null);
+            }
+        });
+    }
+
+    @Override
+    @NotNull
+    public ListenableFuture<List<OAuth2PermissionGrant>> getPermissionGrants() {
+        return withDeadline(new Supplier<ListenableFuture<List<OAuth2PermissionGrant>>>() {
+            @Override
+            public ListenableFuture<List<OAuth2PermissionGrant>> get() {
+                return deserializeList(readCoalesced("oauth2PermissionGrants", RequestPipeline.hedgedPermissionGrantReads, new RequestCallback<ListenableFuture<String>>() {
+                    @Override
+                    public ListenableFuture<String> execute()
+                            throws Throwable {
+                        return getDirectoryClient().getoauth2PermissionGrants().readRaw();
+                    }
+                }), OAuth2PermissionGrant.class);
+            }
+        });
+    }
+
+    private <E extends DirectoryObject, F extends ODataEntityFetcher<E, ? extends DirectoryObjectOperations>, O extends ODataOperations>
+    ListenableFuture<List<E>> getAllObjects(@NotNull Supplier<ODataCollectionFetcher<E, F, O>> fetcherSupplier,
+                                            @NotNull Class<E> clazz,
+                                            @NotNull Predicate<E> isComplete) {
+        final List<E> entities = Lists.newArrayList();
+
+        PageCallback<E> callback = new PageCallback<E>() {
+            @Override
+            public void onPage(@NotNull List<E> page) {
+                entities.addAll(page);
+            }
+        };
+
+        return Futures.transform(readPages(fetcherSupplier, clazz, isComplete, callback, null, 0),
+                new AsyncFunction<Integer, List<E>>() {
+                    @Override
+                    public ListenableFuture<List<E>> apply(Integer count) throws Exception {
+                        return Futures.immediateFuture(entities);
+                    }
+                });
+    }
+
+    private <E extends DirectoryObject, F extends ODataEntityFetcher<E, ? extends DirectoryObjectOperations>, O extends ODataOperations>
+    ListenableFuture<Integer> readPages(@NotNull final Supplier<ODataCollectionFetcher<E, F, O>> fetcherSupplier,
+                                        @NotNull final Class<E> clazz,
+                                        @NotNull final Predicate<E> isComplete,
+                                        @NotNull final PageCallback<E> callback,
+                                        @Nullable String skipToken,
+                                        final int count) {
+        return Futures.transform(readPage(fetcherSupplier, clazz, skipToken), inCurrentCall(new AsyncFunction<CollectionPage<E>, Integer>() {
+            @Override
+            public ListenableFuture<Integer> apply(final CollectionPage<E> page) throws Exception {
+                return Futures.transform(completeEntities(fetcherSupplier, page.getItems(), isComplete), inCurrentCall(new AsyncFunction<List<E>, Integer>() {
+                    @Override
+                    public ListenableFuture<Integer> apply(List<E> entities) throws Exception {
+                        // the next page is requested only after the consumer is done with this one
+                        callback.onPage(entities);
+
+                        if (page.hasMore()) {
+                            return readPages(fetcherSupplier, clazz, isComplete, callback, page.getSkipToken(),
+                                    count + entities.size());
+                        }
+
+                        return Futures.immediateFuture(count + entities.size());
+                    }
+                }));
+            }
+        }));
+    }
+
+    private <E extends DirectoryObject, F extends ODataEntityFetcher<E, ? extends DirectoryObjectOperations>, O extends ODataOperations>
+    ListenableFuture<List<E>> completeEntities(@NotNull final Supplier<ODataCollectionFetcher<E, F, O>> fetcherSupplier,
+                                               @NotNull final List<E> entities,
+                                               @NotNull Predicate<E> isComplete) {
+        // only go back to the service for the entities that the collection read left incomplete
+        final List<Integer> incompleteIndexes = Lists.newArrayList();
+        List<ListenableFuture<E>> futures = Lists.newArrayList();
+
+        for (int i = 0; i < entities.size(); i++) {
+            if (!isComplete.apply(entities.get(i))) {
+                incompleteIndexes.add(i);
+
+                // a page can leave hundreds of entities incomplete; these reads are paced and retried like any
+                // other request and go through the bounded executor
+                final String objectId = entities.get(i).getobjectId();
+                futures.add(requestFutureWithToken(new RequestCallback<ListenableFuture<E>>() {
+                    @Override
+                    public ListenableFuture<E> execute()
+                            throws Throwable {
+                        // a slow answer to one of them would hold up the whole page, so they are hedged;
+                        // the hedge shares the slot of the read it backs up
+                        return RequestPipeline.requestExecutor.submit(new Supplier<ListenableFuture<E>>() {
+                            @Override
+                            public ListenableFuture<E> get() {
+                                return RequestPipeline.hedgedObjectReads.execute(new Supplier<ListenableFuture<E>>() {
+                                    @Override
+                                    public ListenableFuture<E> get() {
+                                        return fetcherSupplier.get().getById(objectId).read();
+                                    }
+                                });
+                            }
+                        });
+                    }
+                }));
+            }
+        }
+
+        if (futures.isEmpty()) {
+            return Futures.immediateFuture(entities);
+        }
+
+        return Futures.transform(Futures.successfulAsList(futures), new AsyncFunction<List<E>, List<E>>() {
+            @Override
+            public ListenableFuture<List<E>> apply(List<E> completeEntities) throws Exception {
+                // a failed individual read leaves the entity from the collection in place
+                for (int i = 0; i < completeEntities.size(); i++) {
+                    if (completeEntities.get(i) != null) {
+                        entities.set(incompleteIndexes.get(i), completeEntities.get(i));
+                    }
+                }
+
+                return Futures.immediateFuture(entities);
+            }
+        });
+    }
+
+    // the page's items are deserialized as the given class, which needn't be the fetcher's entity type when
+    // the read is a projection
+    //
+    // every page is a request of its own, paced and retried on its own; a listing is never started over since
+    // the pages before a failure have already been handed out. The pages after the first are requested from
+    // continuations, which keep the lane and deadline of the listing through inCurrentCall
+    private <E> ListenableFuture<CollectionPage<E>> readPage(@NotNull final Supplier<? extends ODataCollectionFetcher<?, ?, ?>> fetcherSupplier,
+                                                             @NotNull final Class<E> clazz,
+                                                             @Nullable final String skipToken) {
+        ListenableFuture<String> payload = requestFutureWithToken(new RequestCallback<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> execute()
+                    throws Throwable {
+                // a fresh fetcher for every attempt so that it carries the token current by then
+                final ODataCollectionFetcher<?, ?, ?> fetcher = fetcherSupplier.get();
+                fetcher.top(PAGE_SIZE);
+                if (skipToken != null) {
+                    fetcher.addParameter("$skiptoken", new ODataLiteral(skipToken));
+                }
+
+                // a listing of a large directory is a long run of these, so they take their turn like
+                // everything else
+                return RequestPipeline.requestExecutor.submit(new Supplier<ListenableFuture<String>>() {
+                    @Override
+                    public ListenableFuture<String> get() {
+                        return fetcher.readRaw();
+                    }
+                });
+            }
+        });
+
+        return Futures.transform(payload, new AsyncFunction<String, CollectionPage<E>>() {
+            @Override
+            public ListenableFuture<CollectionPage<E>> apply(String payload) throws Exception {
+                try {
+                    return Futures.immediateFuture(CollectionPage.parse(payload, clazz));
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
+    }
+
+    // brings the objects of the given type held on disk up to date through a differential query; the objects
+    // and the delta link for the next round are written together so that one never gets ahead of the other
+    @NotNull
+    private <E> ListenableFuture<List<E>> syncDelta(@NotNull final String type,
+                                                    @NotNull final String section,
+                                                    @NotNull final String linkSection,
+                                                    @NotNull final Class<E> clazz) {
+        UserInfo userInfo = getUserInfo();
+        if (userInfo == null) {
+            return Futures.immediateFailedFuture(new IllegalStateException("No user is signed in"));
+        }
+
+        final String tenantId = userInfo.getTenantId();
+        final Map<String, JsonObject> objects = Maps.newLinkedHashMap();
+        final AtomicBoolean changed = new AtomicBoolean();
+        String deltaLink = null;
+
+        final List<String> records = DirectoryCaches.directoryCache.read(tenantId, section);
+        List<String> links = DirectoryCaches.directoryCache.read(tenantId, linkSection);
+
+        if (records != null && links != null && links.size() == 1) {
+            try {
+                JsonParser parser = new JsonParser();
+                for (String record : records) {
+                    JsonObject object = parser.parse(record).getAsJsonObject();
+                    objects.put(object.get("objectId").getAsString(), object);
+                }
+
+                deltaLink = links.get(0);
+            } catch (RuntimeException ignored) {
+                objects.clear();
+            }
+        }
+
+        // a round without a link starts from nothing, so what it finds replaces whatever is on disk
+        changed.set(deltaLink == null);
+
+        ListenableFuture<String> future = readDelta(type, objects, changed, deltaLink);
+
+        if (deltaLink != null) {
+            // the service forgets changes after a while; once the link is refused start over from scratch
+            future = Futures.withFallback(future, inCurrentCall(new FutureFallback<String>() {
+                @Override
+                public ListenableFuture<String> create(@NotNull Throwable throwable) throws Exception {
+                    int status = RetryingRequestExecutor.getStatus(throwable);
+                    if (status != 400 && status != 404 && status != 410) {
+                        return Futures.immediateFailedFuture(throwable);
+                    }
+
+                    objects.clear();
+                    changed.set(true);
+                    return readDelta(type, objects, changed, null);
+                }
+            }));
+        }
+
+        return Futures.transform(future, new AsyncFunction<String, List<E>>() {
+            @Override
+            public ListenableFuture<List<E>> apply(String nextDeltaLink) throws Exception {
+                // a round without changes leaves the records on disk as they are; only the link moves on
+                List<String> updatedRecords = records;
+                if (changed.get()) {
+                    updatedRecords = Lists.newArrayListWithCapacity(objects.size());
+                    for (JsonObject object : objects.values()) {
+                        updatedRecords.add(object.toString());
+                    }
+                }
+
+                List<E> entities = Lists.newArrayListWithCapacity(updatedRecords.size());
+
+                try {
+                    for (String record : updatedRecords) {
+                        entities.add(jsonSerializer.deserialize(record, clazz));
+                    }
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+
+                if (changed.get()) {
+                    Map<String, List<String>> sections = Maps.newHashMap();
+                    sections.put(section, updatedRecords);
+                    sections.put(linkSection, Collections.singletonList(nextDeltaLink));
+                    DirectoryCaches.directoryCache.write(tenantId, sections);
+                } else {
+                    DirectoryCaches.directoryCache.write(tenantId, linkSection, Collections.singletonList(nextDeltaLink));
+                }
+
+                return Futures.immediateFuture(entities);
+            }
+        });
+    }
+
+    // follows one round of changes to its end, applying every page as it arrives, and completes with the
+    // delta link for the next round; without a link the round starts from an empty directory
+    //
+    // like the pages of a listing, every page is a request of its own, paced and retried on its own, so that
+    // a throttled page doesn't replay the ones already applied
+    @NotNull
+    private ListenableFuture<String> readDelta(@NotNull final String type,
+                                               @NotNull final Map<String, JsonObject> objects,
+                                               @NotNull final AtomicBoolean changed,
+                                               @Nullable final String link) {
+        ListenableFuture<String> page = requestFutureWithToken(new RequestCallback<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> execute()
+                    throws Throwable {
+                // a fresh fetcher for every attempt so that it carries the token current by then
+                final ODataCollectionFetcher<DirectoryObject, DirectoryObjectFetcher, DirectoryObjectCollectionOperations> fetcher =
+                        getDirectoryClient().getdirectoryObjects();
+
+                if (link == null) {
+                    fetcher.filter("isof('" + type + "')");
+                    fetcher.addParameter("deltaLink", new ODataLiteral(""));
+                } else {
+                    for (Map.Entry<String, String> parameter : DirectoryDelta.getLinkParameters(link).entrySet()) {
+                        fetcher.addParameter(parameter.getKey(), new ODataLiteral(parameter.getValue()));
+                    }
+                }
 
-        return Futures.transform(fetcher.read(), new AsyncFunction<List<E>, List<E>>() {
-            @Override
-            public ListenableFuture<List<E>> apply(List<E> entities) throws Exception {
-                return Futures.successfulAsList(Lists.transform(entities, new Function<E, ListenableFuture<? extends E>>() {
+                return RequestPipeline.requestExecutor.submit(new Supplier<ListenableFuture<String>>() {
                     @Override
-                    public ListenableFuture<? extends E> apply(E e) {
-                        return fetcher.getById(e.getobjectId()).read();
+                    public ListenableFuture<String> get() {
+                        return fetcher.readRaw();
                     }
-                }));
+                });
             }
         });
+
+        return Futures.transform(page, inCurrentCall(new AsyncFunction<String, String>() {
+            @Override
+            public ListenableFuture<String> apply(String payload) throws Exception {
+                DirectoryDelta delta;
+
+                try {
+                    delta = DirectoryDelta.parse(payload);
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+
+                if (!delta.getChanges().isEmpty()) {
+                    DirectoryDelta.apply(objects, delta.getChanges(), type);
+                    changed.set(true);
+                }
+
+                if (delta.hasMore()) {
+                    return readDelta(type, objects, changed, delta.getNextLink());
+                }
+
+                if (delta.getDeltaLink() == null) {
+                    return Futures.immediateFailedFuture(
+                            new AzureCmdException("The directory did not return a delta link", payload));
+                }
+
+                return Futures.immediateFuture(delta.getDeltaLink());
+            }
+        }));
     }
 
     @Override
     @NotNull
     public ListenableFuture<Application> registerApplication(@NotNull final Application application) {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<Application>>() {
+        return withDeadline(new Supplier<ListenableFuture<Application>>() {
             @Override
-            public ListenableFuture<Application> execute()
-                    throws Throwable {
+            public ListenableFuture<Application> get() {
+                ListenableFuture<Application> added = requestFutureWithToken(new RequestCallback<ListenableFuture<Application>>() {
+                    @Override
+                    public ListenableFuture<Application> execute()
+                            throws Throwable {
+                        return getDirectoryClient().getapplications().add(application);
+                    }
+                }, false);
+
                 // register the app and then create a service principal for the app if there isn't already one
-                return Futures.transform(getDirectoryClient().getapplications().add(application), new AsyncFunction<Application, Application>() {
+                return Futures.transform(cacheApplication(added), inCurrentCall(new AsyncFunction<Application, Application>() {
                     @Override
                     public ListenableFuture<Application> apply(final Application application) throws Exception {
-                        return Futures.transform(getServicePrincipalsForApp(application), new AsyncFunction<List<ServicePrincipal>, Application>() {
+                        return Futures.transform(getServicePrincipalsForApp(application), inCurrentCall(new AsyncFunction<List<ServicePrincipal>, Application>() {
                             @Override
                             public ListenableFuture<Application> apply(List<ServicePrincipal> servicePrincipals) throws Exception {
                                 if (servicePrincipals.size() == 0) {
@@ -445,22 +1584,31 @@ public class Office365ManagerImpl implements Office365Manager {
 
                                 return Futures.immediateFuture(application);
                             }
-                        });
+                        }));
                     }
-                });
+                }));
             }
         });
     }
 
     private ListenableFuture<Application> createServicePrincipalForApp(final Application application) throws AzureCmdException {
-        ServicePrincipal servicePrincipal = new ServicePrincipal();
+        final ServicePrincipal servicePrincipal = new ServicePrincipal();
         servicePrincipal.setappId(application.getappId());
 
         servicePrincipal.setaccountEnabled(true);
 
-        return Futures.transform(getDirectoryClient().getservicePrincipals().add(servicePrincipal), new AsyncFunction<ServicePrincipal, Application>() {
+        ListenableFuture<ServicePrincipal> added = requestFutureWithToken(new RequestCallback<ListenableFuture<ServicePrincipal>>() {
+            @Override
+            public ListenableFuture<ServicePrincipal> execute()
+                    throws Throwable {
+                return getDirectoryClient().getservicePrincipals().add(servicePrincipal);
+            }
+        }, false);
+
+        return Futures.transform(added, new AsyncFunction<ServicePrincipal, Application>() {
             @Override
             public ListenableFuture<Application> apply(ServicePrincipal servicePrincipal) throws Exception {
+                DirectoryCaches.objectCache.addServicePrincipal(application.getappId(), jsonSerializer.serialize(servicePrincipal));
                 return Futures.immediateFuture(application);
             }
         });
@@ -468,21 +1616,43 @@ public class Office365ManagerImpl implements Office365Manager {
 
     @Override
     @NotNull
-    public ListenableFuture<Application> getApplicationForProject(@NotNull Project project) {
-        final String appId = DefaultLoader.getIdeHelper().getProperty(project, PROJECT_APP_ID);
-        if (StringHelper.isNullOrWhiteSpace(appId)) {
-            return Futures.immediateFuture(null);
-        }
-
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<Application>>() {
+    public ListenableFuture<Application> getApplicationForProject(@NotNull final Project project) {
+        return withDeadline(new Supplier<ListenableFuture<Application>>() {
             @Override
-            public ListenableFuture<Application> execute()
-                    throws Throwable {
-                return getFirstItem(
-                        getDirectoryClient().
+            public ListenableFuture<Application> get() {
+                final String appId = DefaultLoader.getIdeHelper().getProperty(project, PROJECT_APP_ID);
+                if (StringHelper.isNullOrWhiteSpace(appId)) {
+                    return Futures.immediateFuture(null);
+                }
+
+                String cached = DirectoryCaches.objectCache.getApplicationByAppId(appId);
+                if (cached != null) {
+                    return deserialize(Futures.immediateFuture(cached), Application.class);
+                }
+
+                final String filter = "appId eq '" + appId + "'";
+                ListenableFuture<List<Application>> applications = deserializeList(readCoalesced("applications?$filter=" + filter, RequestPipeline.hedgedProjectApplicationQueries, new RequestCallback<ListenableFuture<String>>() {
+                    @Override
+                    public ListenableFuture<String> execute()
+                            throws Throwable {
+                        return getDirectoryClient().
                                 getapplications().
-                                filter("appId eq '" + appId + "'").
-                                read());
+                                filter(filter).
+                                readRaw();
+                    }
+                }), Application.class);
+
+                return getFirstItem(Futures.transform(applications, new Function<List<Application>, List<Application>>() {
+                    @Override
+                    public List<Application> apply(List<Application> applications) {
+                        for (Application application : applications) {
+                            DirectoryCaches.objectCache.putApplication(application.getobjectId(), application.getappId(),
+                                    jsonSerializer.serialize(application));
+                        }
+
+                        return applications;
+                    }
+                }));
             }
         });
     }
@@ -496,14 +1666,35 @@ public class Office365ManagerImpl implements Office365Manager {
     @NotNull
     @Override
     public ListenableFuture<List<ServicePrincipal>> getServicePrincipalsForApp(@NotNull final Application application) {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePrincipal>>>() {
             @Override
-            public ListenableFuture<List<ServicePrincipal>> execute()
-                    throws Throwable {
-                return getDirectoryClient().
-                        getservicePrincipals().
-                        filter("appId eq '" + application.getappId() + "'").
-                        read();
+            public ListenableFuture<List<ServicePrincipal>> get() {
+                final String appId = application.getappId();
+
+                String cached = DirectoryCaches.objectCache.getServicePrincipals(appId);
+                if (cached != null) {
+                    return deserializeList(Futures.immediateFuture(cached), ServicePrincipal.class);
+                }
+
+                final String filter = "appId eq '" + appId + "'";
+                ListenableFuture<String> payload = readCoalesced(SERVICE_PRINCIPALS + "?$filter=" + filter, RequestPipeline.hedgedServicePrincipalQueries, new RequestCallback<ListenableFuture<String>>() {
+                    @Override
+                    public ListenableFuture<String> execute()
+                            throws Throwable {
+                        return getDirectoryClient().
+                                getservicePrincipals().
+                                filter(filter).
+                                readRaw();
+                    }
+                });
+
+                return deserializeList(Futures.transform(payload, new Function<String, String>() {
+                    @Override
+                    public String apply(String payload) {
+                        DirectoryCaches.objectCache.putServicePrincipals(appId, payload);
+                        return payload;
+                    }
+                }), ServicePrincipal.class);
             }
         });
     }
@@ -511,77 +1702,91 @@ public class Office365ManagerImpl implements Office365Manager {
     @Override
     @NotNull
     public ListenableFuture<List<ServicePrincipal>> getO365ServicePrincipalsForApp(@NotNull final Application application) {
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePrincipal>>>() {
             @Override
-            public ListenableFuture<List<ServicePrincipal>> execute()
-                    throws Throwable {
-                @SuppressWarnings("unchecked")
-                ListenableFuture<List<ServicePrincipal>>[] futures = new ListenableFuture[]{
-                        getServicePrincipalsForApp(application),
-                        getServicePrincipalsForO365()
-                };
+            public ListenableFuture<List<ServicePrincipal>> get() {
+                return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+                    @Override
+                    public ListenableFuture<List<ServicePrincipal>> execute()
+                            throws Throwable {
+                        // both reads go out in a single batch; the catalog read is only queued if it isn't cached
+                        DirectoryBatch batch = newBatch();
 
-                final String[] filterAppIds = new String[]{
-                        ServiceAppIds.SHARE_POINT,
-                        ServiceAppIds.EXCHANGE,
-                        ServiceAppIds.AZURE_ACTIVE_DIRECTORY
-                };
+                        @SuppressWarnings("unchecked")
+                        ListenableFuture<List<ServicePrincipal>>[] futures = new ListenableFuture[]{
+                                batch.query(SERVICE_PRINCIPALS, "appId eq '" + application.getappId() + "'", ServicePrincipal.class),
+                                getServicePrincipalsForO365(batch)
+                        };
 
-                return Futures.transform(Futures.allAsList(futures), new AsyncFunction<List<List<ServicePrincipal>>, List<ServicePrincipal>>() {
-                    @Override
-                    public ListenableFuture<List<ServicePrincipal>> apply(List<List<ServicePrincipal>> lists) throws Exception {
-                        // According to Guava documentation for allAsList, the list of results is in the
-                        // same order as the input list. So first we get the service principals for the app
-                        // filtered for O365 and Graph service principals.
-                        final List<ServicePrincipal> servicePrincipalsForApp = Lists.newArrayList(Iterables.filter(lists.get(0), new Predicate<ServicePrincipal>() {
+                        batch.execute();
+
+                        final String[] filterAppIds = new String[]{
+                                ServiceAppIds.SHARE_POINT,
+                                ServiceAppIds.EXCHANGE,
+                                ServiceAppIds.AZURE_ACTIVE_DIRECTORY
+                        };
+
+                        return Futures.transform(Futures.allAsList(futures), new AsyncFunction<List<List<ServicePrincipal>>, List<ServicePrincipal>>() {
                             @Override
-                            public boolean apply(final ServicePrincipal servicePrincipal) {
-                                // we are only interested in O365 and Graph service principals
-                                return Iterators.any(Iterators.forArray(filterAppIds), new Predicate<String>() {
+                            public ListenableFuture<List<ServicePrincipal>> apply(List<List<ServicePrincipal>> lists) throws Exception {
+                                // According to Guava documentation for allAsList, the list of results is in the
+                                // same order as the input list. So first we get the service principals for the app
+                                // filtered for O365 and Graph service principals.
+                                final List<ServicePrincipal> servicePrincipalsForApp = Lists.newArrayList(Iterables.filter(lists.get(0), new Predicate<ServicePrincipal>() {
                                     @Override
-                                    public boolean apply(String appId) {
-                                        return appId.equals(servicePrincipal.getappId());
+                                    public boolean apply(final ServicePrincipal servicePrincipal) {
+                                        // we are only interested in O365 and Graph service principals
+                                        return Iterators.any(Iterators.forArray(filterAppIds), new Predicate<String>() {
+                                            @Override
+                                            public boolean apply(String appId) {
+                                                return appId.equals(servicePrincipal.getappId());
+                                            }
+                                        });
                                     }
-                                });
-                            }
-                        }));
+                                }));
 
-                        // next we get the O365/graph service principals
-                        final List<ServicePrincipal> servicePrincipalsForO365 = lists.get(1);
+                                // next we get the O365/graph service principals; these come from the shared catalog
+                                // cache and get modified below, so we work on copies
+                                final List<ServicePrincipal> servicePrincipalsForO365 = Lists.newArrayList();
+                                for (ServicePrincipal servicePrincipal : lists.get(1)) {
+                                    servicePrincipalsForO365.add(copyEntity(servicePrincipal, ServicePrincipal.class));
+                                }
 
-                        // then we add service principals from servicePrincipalsForO365 to servicePrincipalsForApp
-                        // where the service principal is not available in the latter
-                        Iterable<ServicePrincipal> servicePrincipalsToBeAdded = Iterables.filter(servicePrincipalsForO365, new Predicate<ServicePrincipal>() {
-                            @Override
-                            public boolean apply(ServicePrincipal servicePrincipal) {
-                                return !servicePrincipalsForApp.contains(servicePrincipal);
-                            }
-                        });
-                        Iterables.addAll(servicePrincipalsForApp, servicePrincipalsToBeAdded);
+                                // then we add service principals from servicePrincipalsForO365 to servicePrincipalsForApp
+                                // where the service principal is not available in the latter
+                                Iterable<ServicePrincipal> servicePrincipalsToBeAdded = Iterables.filter(servicePrincipalsForO365, new Predicate<ServicePrincipal>() {
+                                    @Override
+                                    public boolean apply(ServicePrincipal servicePrincipal) {
+                                        return !servicePrincipalsForApp.contains(servicePrincipal);
+                                    }
+                                });
+                                Iterables.addAll(servicePrincipalsForApp, servicePrincipalsToBeAdded);
 
-                        // assign the appid to the service principal and reset permissions on new service principals;
-                        // we do Lists.newArrayList calls below to create a copy of the service lists because Lists.transform
-                        // invokes the transformation function lazily and this causes problems for us; we force immediate
-                        // evaluation of our transfomer by copying the elements to a new list
-                        List<ServicePrincipal> servicePrincipals = Lists.newArrayList(Lists.transform(servicePrincipalsForApp, new Function<ServicePrincipal, ServicePrincipal>() {
-                            @Override
-                            public ServicePrincipal apply(ServicePrincipal servicePrincipal) {
-                                if (!servicePrincipal.getappId().equals(application.getappId())) {
-                                    servicePrincipal.setappId(application.getappId());
-                                    servicePrincipal.setoauth2Permissions(Lists.newArrayList(Lists.transform(servicePrincipal.getoauth2Permissions(), new Function<OAuth2Permission, OAuth2Permission>() {
-                                        @Override
-                                        public OAuth2Permission apply(OAuth2Permission oAuth2Permission) {
-                                            oAuth2Permission.setisEnabled(false);
-                                            return oAuth2Permission;
+                                // assign the appid to the service principal and reset permissions on new service principals;
+                                // we do Lists.newArrayList calls below to create a copy of the service lists because Lists.transform
+                                // invokes the transformation function lazily and this causes problems for us; we force immediate
+                                // evaluation of our transfomer by copying the elements to a new list
+                                List<ServicePrincipal> servicePrincipals = Lists.newArrayList(Lists.transform(servicePrincipalsForApp, new Function<ServicePrincipal, ServicePrincipal>() {
+                                    @Override
+                                    public ServicePrincipal apply(ServicePrincipal servicePrincipal) {
+                                        if (!servicePrincipal.getappId().equals(application.getappId())) {
+                                            servicePrincipal.setappId(application.getappId());
+                                            servicePrincipal.setoauth2Permissions(Lists.newArrayList(Lists.transform(servicePrincipal.getoauth2Permissions(), new Function<OAuth2Permission, OAuth2Permission>() {
+                                                @Override
+                                                public OAuth2Permission apply(OAuth2Permission oAuth2Permission) {
+                                                    oAuth2Permission.setisEnabled(false);
+                                                    return oAuth2Permission;
+                                                }
+                                            })));
                                         }
-                                    })));
-                                }
 
-                                return servicePrincipal;
-                            }
-                        }));
+                                        return servicePrincipal;
+                                    }
+                                }));
 
-                        return Futures.immediateFuture(servicePrincipals);
+                                return Futures.immediateFuture(servicePrincipals);
+                            }
+                        });
                     }
                 });
             }
@@ -592,79 +1797,115 @@ public class Office365ManagerImpl implements Office365Manager {
     @NotNull
     public ListenableFuture<List<ServicePrincipal>> addServicePrincipals(
             @NotNull final List<ServicePrincipal> servicePrincipals) {
-
-        return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+        return withDeadline(new Supplier<ListenableFuture<List<ServicePrincipal>>>() {
             @Override
-            public ListenableFuture<List<ServicePrincipal>> execute()
-                    throws Throwable {
-                List<ListenableFuture<ServicePrincipal>> futures = Lists.transform(
-                        servicePrincipals,
-                        new Function<ServicePrincipal, ListenableFuture<ServicePrincipal>>() {
+            public ListenableFuture<List<ServicePrincipal>> get() {
+
+                return requestFutureWithToken(new RequestCallback<ListenableFuture<List<ServicePrincipal>>>() {
+                    @Override
+                    public ListenableFuture<List<ServicePrincipal>> execute()
+                            throws Throwable {
+                        DirectoryBatch batch = newBatch();
+
+                        List<ListenableFuture<ServicePrincipal>> futures = Lists.newArrayList();
+                        for (ServicePrincipal servicePrincipal : servicePrincipals) {
+                            futures.add(batch.add(SERVICE_PRINCIPALS, servicePrincipal, ServicePrincipal.class));
+                        }
+
+                        batch.execute();
+                        return Futures.transform(Futures.allAsList(futures), new Function<List<ServicePrincipal>, List<ServicePrincipal>>() {
                             @Override
-                            public ListenableFuture<ServicePrincipal> apply(ServicePrincipal servicePrincipal) {
-                                return getDirectoryClient().getservicePrincipals().add(servicePrincipal);
+                            public List<ServicePrincipal> apply(List<ServicePrincipal> servicePrincipals) {
+                                for (ServicePrincipal servicePrincipal : servicePrincipals) {
+                                    DirectoryCaches.objectCache.addServicePrincipal(servicePrincipal.getappId(),
+                                            jsonSerializer.serialize(servicePrincipal));
+                                }
+
+                                return servicePrincipals;
                             }
-                        }
-                );
+                        });
+                    }
+                }, false);
+            }
+        });
+    }
+
+    @NotNull
+    private static <T> T copyEntity(@NotNull T entity, @NotNull Class<T> clazz) throws Exception {
+        try {
+            return jsonSerializer.deserialize(jsonSerializer.serialize(entity), clazz);
+        } catch (Throwable throwable) {
+            Throwables.propagateIfPossible(throwable, Exception.class);
+            throw new RuntimeException(throwable);
+        }
+    }
+
+    // what the directory returns for an application we created is what it now holds; it also goes in the
+    // summaries on disk so that the app picker can show it before its next listing
+    @NotNull
+    private ListenableFuture<Application> cacheApplication(@NotNull ListenableFuture<Application> future) {
+        return Futures.transform(future, new Function<Application, Application>() {
+            @Override
+            public Application apply(Application application) {
+                if (application != null && application.getobjectId() != null) {
+                    DirectoryCaches.objectCache.putApplication(application.getobjectId(), application.getappId(),
+                            jsonSerializer.serialize(application));
+
+                    UserInfo userInfo = getUserInfo();
+                    if (userInfo != null) {
+                        DirectoryCaches.directoryCache.append(userInfo.getTenantId(),
+                                PersistentDirectoryCache.APPLICATION_SUMMARIES,
+                                toSummaryRecords(Collections.singletonList(application)).get(0));
+                    }
+                }
 
-                return Futures.allAsList(futures);
+                return application;
             }
         });
     }
 
     @Nullable
     private UserInfo getUserInfo() {
-        authDataLock.readLock().lock();
-
-        try {
-            return userInfo;
-        } finally {
-            authDataLock.readLock().unlock();
-        }
+        return getAuthState().getUserInfo();
     }
 
     private void setUserInfo(@Nullable UserInfo userInfo) {
-        authDataLock.writeLock().lock();
+        authState.set(new AuthState(userInfo, null, null));
 
-        try {
-            this.userInfo = userInfo;
-            setAccessToken(null);
+        // cached directory data belongs to the previous user's tenant
+        o365ServicePrincipals.invalidate();
+        applicationSnapshots.invalidateAll();
+        DirectoryCaches.objectCache.invalidateAll();
 
-            String json = gson.toJson(userInfo, UserInfo.class);
-            DefaultLoader.getIdeHelper().setProperty(AppSettingsNames.O365_USER_INFO, json);
-        } finally {
-            authDataLock.writeLock().unlock();
-        }
+        userInfoProperty.set(gson.toJson(userInfo, UserInfo.class));
     }
 
-    @Nullable
-    private String getAccessToken() {
-        authDataLock.readLock().lock();
+    @NotNull
+    private AuthState getAuthState() {
+        AuthState state = authState.get();
 
-        try {
-            return accessToken;
-        } finally {
-            authDataLock.readLock().unlock();
+        if (state == null) {
+            // whoever loses the race here simply uses the state published by the winner
+            authState.compareAndSet(null, new AuthState(loadUserInfo(), null, null));
+            state = authState.get();
         }
-    }
-
-    private void setAccessToken(@Nullable String accessToken) {
-        authDataLock.writeLock().lock();
 
-        try {
-            this.accessToken = accessToken;
+        return state;
+    }
 
-            DirectoryClient directoryDataServiceClient = null;
+    @Nullable
+    private static UserInfo loadUserInfo() {
+        String json = DefaultLoader.getIdeHelper().getProperty(AppSettingsNames.O365_USER_INFO);
 
-            if (accessToken != null) {
-                PluginDependencyResolver dependencyResolver = new PluginDependencyResolver(accessToken);
-                directoryDataServiceClient = new DirectoryClient(getGraphApiUri(), dependencyResolver);
+        if (!StringHelper.isNullOrWhiteSpace(json)) {
+            try {
+                return gson.fromJson(json, UserInfo.class);
+            } catch (JsonSyntaxException ignored) {
+                DefaultLoader.getIdeHelper().unsetProperty(AppSettingsNames.O365_USER_INFO);
             }
-
-            setDirectoryDataServiceClient(directoryDataServiceClient);
-        } finally {
-            authDataLock.writeLock().unlock();
         }
+
+        return null;
     }
 
     // NOTE: The result of calling getDirectoryClient should never be cached. This is because of the following
@@ -674,73 +1915,326 @@ public class Office365ManagerImpl implements Office365Manager {
     //      client will be instantiated; if we use cached objects then we'll continue using the client with the
     //      expired token instead of the new one
     private DirectoryClient getDirectoryClient() {
-        authDataLock.readLock().lock();
+        return getAuthState().getDirectoryClient();
+    }
 
-        try {
-            return directoryDataServiceClient;
-        } finally {
-            authDataLock.readLock().unlock();
+    // publishes a client for the given token unless the current state already has one; if another thread gets
+    // in first we look again, and either find its client good for our token or replace it with ours
+    private void updateAccessToken(@NotNull String accessToken) {
+        while (true) {
+            AuthState current = getAuthState();
+
+            if (accessToken.equals(current.getAccessToken())) {
+                return;
+            }
+
+            if (current.getUserInfo() == null) {
+                throw new IllegalStateException("user is null");
+            }
+
+            AuthState updated = new AuthState(
+                    current.getUserInfo(),
+                    accessToken,
+                    new DirectoryClient(getGraphApiUri(current.getUserInfo()), new PluginDependencyResolver(accessToken)));
+
+            if (authState.compareAndSet(current, updated)) {
+                return;
+            }
         }
     }
 
-    private void setDirectoryDataServiceClient(DirectoryClient directoryDataServiceClient) {
-        authDataLock.writeLock().lock();
+    // like the directory client, a batch carries the current access token so it is created from within a
+    // request callback and never held on to
+    @NotNull
+    private DirectoryBatch newBatch() {
+        PluginSettings settings = DefaultLoader.getPluginComponent().getSettings();
 
-        try {
-            this.directoryDataServiceClient = directoryDataServiceClient;
-        } finally {
-            authDataLock.writeLock().unlock();
+        // token and tenant come from the same snapshot so that they always belong together
+        AuthState state = getAuthState();
+        if (state.getUserInfo() == null || state.getAccessToken() == null) {
+            throw new IllegalStateException("user is null");
         }
+
+        return new DirectoryBatch(
+                settings.getGraphApiUri() + state.getUserInfo().getTenantId(),
+                settings.getGraphApiVersion(),
+                new PluginDependencyResolver(state.getAccessToken()),
+                RequestPipeline.requestExecutor);
     }
 
-    private String getGraphApiUri() {
+    private String getGraphApiUri(@NotNull UserInfo userInfo) {
         PluginSettings settings = DefaultLoader.getPluginComponent().getSettings();
 
         return GRAPH_API_URI_TEMPLATE.
                 replace("{base_uri}", settings.getGraphApiUri()).
-                replace("{tenant_domain}", getTenantDomain()).
+                replace("{tenant_domain}", userInfo.getTenantId()).
                 replace("{api_version}", settings.getGraphApiVersion());
     }
 
-    private String getTenantDomain() {
-        UserInfo userInfo = getUserInfo();
+    @NotNull
+    private <V> ListenableFuture<V> requestFutureWithToken(@NotNull RequestCallback<ListenableFuture<V>> requestCallback) {
+        return requestFutureWithToken(requestCallback, true);
+    }
 
-        if (userInfo == null) {
-            throw new IllegalStateException("user is null");
+    // requests are paced and, if idempotent, retried when the service throttles us or fails transiently;
+    // every attempt uses whatever token is current by then and waits in the lane of the thread making the
+    // request. Only single requests go through here: calls made of several requests put them together
+    // outside, so that each of them takes its turn once
+    //
+    // an attempt that only gets its turn after the deadline of the call it is part of isn't sent
+    @NotNull
+    private <V> ListenableFuture<V> requestFutureWithToken(@NotNull final RequestCallback<ListenableFuture<V>> requestCallback,
+                                                         boolean idempotent) {
+        final Deadline deadline = Deadline.current();
+
+        return RequestPipeline.retryingExecutor.execute(new Supplier<ListenableFuture<V>>() {
+            @Override
+            public ListenableFuture<V> get() {
+                if (deadline == null) {
+                    return requestFutureWithTokenOnce(requestCallback);
+                }
+
+                if (deadline.isExpired()) {
+                    return Futures.immediateFailedFuture(new DeadlineExceededException(
+                            "The directory call ran out of time before the request could be sent"));
+                }
+
+                return deadline.call(new Supplier<ListenableFuture<V>>() {
+                    @Override
+                    public ListenableFuture<V> get() {
+                        return requestFutureWithTokenOnce(requestCallback);
+                    }
+                });
+            }
+        }, RequestLane.current(), idempotent);
+    }
+
+    // every call is bounded by the deadline of the caller, if it makes the call within one, or else by one that
+    // starts with the call; calls made as part of another one share its deadline
+    @NotNull
+    private static <V> ListenableFuture<V> withDeadline(@NotNull Supplier<ListenableFuture<V>> call) {
+        if (Deadline.current() != null) {
+            return call.get();
+        }
+
+        return Deadline.after(Office365ManagerSettings.getCallDeadlineMillis(), TimeUnit.MILLISECONDS).within(call);
+    }
+
+    // idempotent reads only: the read may be sent twice
+    @NotNull
+    private static <V> RequestCallback<ListenableFuture<V>> hedged(@NotNull final HedgingRequestExecutor executor,
+                                                                   @NotNull final RequestCallback<ListenableFuture<V>> read) {
+        return new RequestCallback<ListenableFuture<V>>() {
+            @Override
+            public ListenableFuture<V> execute() throws Throwable {
+                return executor.execute(new Supplier<ListenableFuture<V>>() {
+                    @Override
+                    public ListenableFuture<V> get() {
+                        try {
+                            return read.execute();
+                        } catch (Throwable throwable) {
+                            return Futures.immediateFailedFuture(throwable);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    // while we hold a token that is good the request goes straight out with it; only when there is none, it
+    // has expired or it is turned down do we wait for a renewal, which concurrent requests share
+    @NotNull
+    private <V> ListenableFuture<V> requestFutureWithTokenOnce(@NotNull final RequestCallback<ListenableFuture<V>> requestCallback) {
+        AuthState state = getAuthState();
+        long now = System.currentTimeMillis();
+
+        if (!state.hasUsableToken(now)) {
+            return executeAfterRenewal(requestCallback, state.getAccessToken());
+        }
+
+        final String accessToken = state.getAccessToken();
+        if (state.isTokenDueForRenewal(now)) {
+            renewAccessToken(accessToken);
+        }
+
+        ListenableFuture<V> future = executeCallback(requestCallback);
+
+        return Futures.withFallback(future, inCurrentCall(new FutureFallback<V>() {
+            @Override
+            public ListenableFuture<V> create(@NotNull Throwable throwable) throws Exception {
+                if (RetryingRequestExecutor.getStatus(throwable) != UNAUTHORIZED) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+
+                // the token was turned down before we expected it to expire
+                return executeAfterRenewal(requestCallback, accessToken);
+            }
+        }));
+    }
+
+    @NotNull
+    private <V> ListenableFuture<V> executeAfterRenewal(@NotNull final RequestCallback<ListenableFuture<V>> requestCallback,
+                                                       @Nullable String staleAccessToken) {
+        return Futures.transform(renewAccessToken(staleAccessToken), inCurrentCall(new AsyncFunction<String, V>() {
+            @Override
+            public ListenableFuture<V> apply(String accessToken) throws Exception {
+                return executeCallback(requestCallback);
+            }
+        }));
+    }
+
+    // continuations run on whichever thread completed what they wait on, which carries neither the lane nor
+    // the deadline of the call they are part of; one that makes requests is wrapped here, while both are
+    // still current, so that its requests remain part of the call
+    @NotNull
+    private static <I, O> AsyncFunction<I, O> inCurrentCall(@NotNull final AsyncFunction<I, O> function) {
+        final RequestLane lane = RequestLane.current();
+        final Deadline deadline = Deadline.current();
+
+        return new AsyncFunction<I, O>() {
+            @Override
+            public ListenableFuture<O> apply(final I input) throws Exception {
+                return callIn(lane, deadline, new Supplier<ListenableFuture<O>>() {
+                    @Override
+                    public ListenableFuture<O> get() {
+                        try {
+                            return function.apply(input);
+                        } catch (Throwable throwable) {
+                            return Futures.immediateFailedFuture(throwable);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    @NotNull
+    private static <V> FutureFallback<V> inCurrentCall(@NotNull final FutureFallback<V> fallback) {
+        final RequestLane lane = RequestLane.current();
+        final Deadline deadline = Deadline.current();
+
+        return new FutureFallback<V>() {
+            @Override
+            public ListenableFuture<V> create(@NotNull final Throwable throwable) throws Exception {
+                return callIn(lane, deadline, new Supplier<ListenableFuture<V>>() {
+                    @Override
+                    public ListenableFuture<V> get() {
+                        try {
+                            return fallback.create(throwable);
+                        } catch (Throwable fallbackError) {
+                            return Futures.immediateFailedFuture(fallbackError);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    @NotNull
+    private static <V> ListenableFuture<V> callIn(@NotNull RequestLane lane,
+                                                  @Nullable final Deadline deadline,
+                                                  @NotNull final Supplier<ListenableFuture<V>> supplier) {
+        if (deadline == null) {
+            return lane.call(supplier);
         }
 
-        return userInfo.getTenantId();
+        return lane.call(new Supplier<ListenableFuture<V>>() {
+            @Override
+            public ListenableFuture<V> get() {
+                return deadline.call(supplier);
+            }
+        });
+    }
+
+    // cancelling what the callback returns aborts the HTTP requests it sent
+    @NotNull
+    private static <V> ListenableFuture<V> executeCallback(@NotNull final RequestCallback<ListenableFuture<V>> requestCallback) {
+        return CancellationScope.call(new Supplier<ListenableFuture<V>>() {
+            @Override
+            public ListenableFuture<V> get() {
+                try {
+                    return requestCallback.execute();
+                } catch (Throwable throwable) {
+                    return Futures.immediateFailedFuture(throwable);
+                }
+            }
+        });
     }
 
+    // gets a token to replace the given one, which may be null if we have none yet; there is only ever one
+    // renewal going on, everyone who needs a new token in the meantime waits for that one
     @NotNull
-    private <V> ListenableFuture<V> requestFutureWithToken(@NotNull final RequestCallback<ListenableFuture<V>> requestCallback) {
+    private ListenableFuture<String> renewAccessToken(@Nullable String staleAccessToken) {
+        while (true) {
+            ListenableFuture<String> current = tokenRenewal.get();
+            if (current != null && !current.isDone()) {
+                // callers share the renewal, so none of them gets to cancel it
+                return FutureHelper.nonCancelling(current);
+            }
+
+            // someone else may have already replaced the token while we were deciding to
+            AuthState state = getAuthState();
+            if (state.hasUsableToken(System.currentTimeMillis()) && !state.getAccessToken().equals(staleAccessToken)) {
+                return Futures.immediateFuture(state.getAccessToken());
+            }
+
+            SettableFuture<String> renewal = SettableFuture.create();
+            if (tokenRenewal.compareAndSet(current, renewal)) {
+                startTokenRenewal(staleAccessToken, renewal);
+                return FutureHelper.nonCancelling(renewal);
+            }
+        }
+    }
+
+    private void startTokenRenewal(@Nullable final String staleAccessToken, @NotNull SettableFuture<String> renewal) {
         PluginSettings settings = DefaultLoader.getPluginComponent().getSettings();
+        final AtomicBoolean turnedDown = new AtomicBoolean();
 
-        com.microsoft.tooling.msservices.helpers.auth.RequestCallback<ListenableFuture<V>> aadRequestCB =
-                new com.microsoft.tooling.msservices.helpers.auth.RequestCallback<ListenableFuture<V>>() {
+        com.microsoft.tooling.msservices.helpers.auth.RequestCallback<ListenableFuture<String>> aadRequestCB =
+                new com.microsoft.tooling.msservices.helpers.auth.RequestCallback<ListenableFuture<String>>() {
                     @NotNull
                     @Override
-                    public ListenableFuture<V> execute(@NotNull String accessToken)
+                    public ListenableFuture<String> execute(@NotNull String accessToken)
                             throws Throwable {
-                        if (!accessToken.equals(getAccessToken())) {
-                            authDataLock.writeLock().lock();
-
-                            try {
-                                if (!accessToken.equals(getAccessToken())) {
-                                    setAccessToken(accessToken);
-                                }
-                            } finally {
-                                authDataLock.writeLock().unlock();
-                            }
+                        // the AAD manager hands out the token it has until a request turns it down, so that's
+                        // what we do with the one we are replacing, once
+                        if (accessToken.equals(staleAccessToken) && turnedDown.compareAndSet(false, true)) {
+                            return Futures.immediateFailedFuture(new AzureCmdException(EXPIRED_TOKEN_ERROR, ""));
                         }
 
-                        return requestCallback.execute();
+                        updateAccessToken(accessToken);
+                        return Futures.immediateFuture(accessToken);
                     }
                 };
 
-        return aadManager.requestFuture(userInfo,
-                settings.getGraphApiUri(),
-                "Sign in to your Office 365 account",
-                aadRequestCB);
+        try {
+            FutureHelper.forward(aadManager.requestFuture(getUserInfo(),
+                    settings.getGraphApiUri(),
+                    "Sign in to your Office 365 account",
+                    aadRequestCB), renewal);
+        } catch (Throwable throwable) {
+            renewal.setException(throwable);
+        }
+    }
+
+    // AAD access tokens are JWTs whose "exp" claim is the expiry in seconds since the epoch
+    private static long getTokenExpiry(@NotNull String accessToken) {
+        long receivedAt = System.currentTimeMillis();
+        String[] parts = accessToken.split("\\.");
+
+        if (parts.length == 3) {
+            try {
+                String claims = new String(BaseEncoding.base64Url().omitPadding().decode(
+                        CharMatcher.is('=').trimTrailingFrom(parts[1])), Charsets.UTF_8);
+                JsonElement expiry = new JsonParser().parse(claims).getAsJsonObject().get("exp");
+
+                if (expiry != null && expiry.isJsonPrimitive()) {
+                    return TimeUnit.SECONDS.toMillis(expiry.getAsLong());
+                }
+            } catch (RuntimeException ignored) {
+            }
+        }
+
+        return receivedAt + DEFAULT_TOKEN_LIFETIME_MILLIS;
     }
-}
\ No newline at end of file
+}
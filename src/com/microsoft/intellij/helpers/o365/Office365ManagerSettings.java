@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.microsoft.tooling.msservices.components.DefaultLoader;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.StringHelper;
+
+import java.util.concurrent.TimeUnit;
+
+// every value can be overridden by an application level ide property of the same name
+public class Office365ManagerSettings {
+    public static final String CATALOG_CACHE_TTL_SECONDS = "com.microsoft.intellij.o365.CatalogCacheTtlSeconds";
+    public static final String DIRECTORY_CACHE_MAX_BYTES = "com.microsoft.intellij.o365.DirectoryCacheMaxBytes";
+    public static final String MAX_CONCURRENT_REQUESTS = "com.microsoft.intellij.o365.MaxConcurrentRequests";
+    public static final String REQUEST_QUEUE_CAPACITY = "com.microsoft.intellij.o365.RequestQueueCapacity";
+    public static final String MAX_RETRIES = "com.microsoft.intellij.o365.MaxRetries";
+    public static final String REQUESTS_PER_SECOND = "com.microsoft.intellij.o365.RequestsPerSecond";
+    public static final String REQUEST_BURST = "com.microsoft.intellij.o365.RequestBurst";
+    public static final String MAX_CONNECTIONS = "com.microsoft.intellij.o365.MaxConnections";
+    public static final String CONNECT_TIMEOUT_MILLIS = "com.microsoft.intellij.o365.ConnectTimeoutMillis";
+    public static final String READ_TIMEOUT_MILLIS = "com.microsoft.intellij.o365.ReadTimeoutMillis";
+    public static final String OBJECT_CACHE_MAX_BYTES = "com.microsoft.intellij.o365.ObjectCacheMaxBytes";
+    public static final String OBJECT_CACHE_TTL_SECONDS = "com.microsoft.intellij.o365.ObjectCacheTtlSeconds";
+    public static final String CALL_DEADLINE_MILLIS = "com.microsoft.intellij.o365.CallDeadlineMillis";
+    public static final String HEDGE_PERCENTILE = "com.microsoft.intellij.o365.HedgePercentile";
+
+    private static final long DEFAULT_CATALOG_CACHE_TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final long DEFAULT_DIRECTORY_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+    private static final int DEFAULT_REQUEST_QUEUE_CAPACITY = 4096;
+    private static final int DEFAULT_MAX_RETRIES = 4;
+    private static final int DEFAULT_REQUESTS_PER_SECOND = 10;
+    private static final int DEFAULT_REQUEST_BURST = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS = 16;
+    private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final long DEFAULT_READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long DEFAULT_OBJECT_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+    private static final long DEFAULT_OBJECT_CACHE_TTL_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+    private static final long DEFAULT_CALL_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(120);
+    private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+
+    public static long getCatalogCacheTtl(@NotNull TimeUnit unit) {
+        return unit.convert(getLong(CATALOG_CACHE_TTL_SECONDS, DEFAULT_CATALOG_CACHE_TTL_SECONDS), TimeUnit.SECONDS);
+    }
+
+    public static long getDirectoryCacheMaxBytes() {
+        return getLong(DIRECTORY_CACHE_MAX_BYTES, DEFAULT_DIRECTORY_CACHE_MAX_BYTES);
+    }
+
+    public static int getMaxConcurrentRequests() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, getLong(MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS)));
+    }
+
+    public static int getRequestQueueCapacity() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, getLong(REQUEST_QUEUE_CAPACITY, DEFAULT_REQUEST_QUEUE_CAPACITY)));
+    }
+
+    public static int getMaxRetries() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, getLong(MAX_RETRIES, DEFAULT_MAX_RETRIES)));
+    }
+
+    public static int getRequestsPerSecond() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, getLong(REQUESTS_PER_SECOND, DEFAULT_REQUESTS_PER_SECOND)));
+    }
+
+    public static int getRequestBurst() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, getLong(REQUEST_BURST, DEFAULT_REQUEST_BURST)));
+    }
+
+    public static int getMaxConnections() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, getLong(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS)));
+    }
+
+    public static int getConnectTimeoutMillis() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, getLong(CONNECT_TIMEOUT_MILLIS, DEFAULT_CONNECT_TIMEOUT_MILLIS)));
+    }
+
+    public static int getReadTimeoutMillis() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, getLong(READ_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS)));
+    }
+
+    public static long getObjectCacheMaxBytes() {
+        return Math.max(0, getLong(OBJECT_CACHE_MAX_BYTES, DEFAULT_OBJECT_CACHE_MAX_BYTES));
+    }
+
+    public static long getObjectCacheTtl(@NotNull TimeUnit unit) {
+        return unit.convert(Math.max(0, getLong(OBJECT_CACHE_TTL_SECONDS, DEFAULT_OBJECT_CACHE_TTL_SECONDS)), TimeUnit.SECONDS);
+    }
+
+    public static long getCallDeadlineMillis() {
+        return Math.max(1, getLong(CALL_DEADLINE_MILLIS, DEFAULT_CALL_DEADLINE_MILLIS));
+    }
+
+    // 0 turns hedging off
+    public static int getHedgePercentile() {
+        return (int) Math.max(0, Math.min(100, getLong(HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE)));
+    }
+
+    static long getLong(@NotNull String name, long defaultValue) {
+        String value = DefaultLoader.getIdeHelper().getProperty(name);
+
+        if (StringHelper.isNullOrWhiteSpace(value)) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ignored) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.microsoft.directoryservices.OAuth2Permission;
+import com.microsoft.directoryservices.ServicePrincipal;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// built once per service principal list and shared by the PermissionMatrix of every application
+public class PermissionCatalog {
+    public static final PermissionCatalog EMPTY = new PermissionCatalog(null, ImmutableMap.<String, Service>of());
+
+    public static class Permission {
+        private final int index;
+        private final UUID id;
+        private final String name;
+        private final String description;
+
+        private Permission(int index, @NotNull UUID id, @NotNull String name, @Nullable String description) {
+            this.index = index;
+            this.id = id;
+            this.name = name;
+            this.description = description;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @NotNull
+        public UUID getId() {
+            return id;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        @Nullable
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    public static class Service {
+        private final String appId;
+        private final String name;
+        private final List<Permission> permissions;
+        private final Map<String, Permission> permissionsById;
+
+        private Service(@NotNull String appId, @Nullable String name, @NotNull List<Permission> permissions) {
+            this.appId = appId;
+            this.name = name;
+            this.permissions = permissions;
+
+            Map<String, Permission> permissionsById = new LinkedHashMap<String, Permission>();
+            for (Permission permission : permissions) {
+                permissionsById.put(permission.getId().toString(), permission);
+            }
+            this.permissionsById = ImmutableMap.copyOf(permissionsById);
+        }
+
+        @NotNull
+        public String getAppId() {
+            return appId;
+        }
+
+        @Nullable
+        public String getName() {
+            return name;
+        }
+
+        @NotNull
+        public List<Permission> getPermissions() {
+            return permissions;
+        }
+
+        @Nullable
+        public Permission getPermission(@NotNull String id) {
+            Permission permission = permissionsById.get(id);
+
+            // ids normally come back from the service in their canonical lower case form
+            return permission != null ? permission : permissionsById.get(id.toLowerCase());
+        }
+    }
+
+    private final List<ServicePrincipal> source;
+    private final Map<String, Service> services;
+
+    private PermissionCatalog(@Nullable List<ServicePrincipal> source, @NotNull Map<String, Service> services) {
+        this.source = source;
+        this.services = services;
+    }
+
+    @NotNull
+    public static PermissionCatalog create(@NotNull List<ServicePrincipal> servicePrincipals) {
+        Map<String, Service> services = new LinkedHashMap<String, Service>();
+
+        for (ServicePrincipal servicePrincipal : servicePrincipals) {
+            String appId = servicePrincipal.getappId();
+            if (appId == null || services.containsKey(appId)) {
+                continue;
+            }
+
+            ImmutableList.Builder<Permission> permissions = ImmutableList.builder();
+            List<OAuth2Permission> oauth2Permissions = servicePrincipal.getoauth2Permissions();
+
+            if (oauth2Permissions != null) {
+                int index = 0;
+                for (OAuth2Permission permission : oauth2Permissions) {
+                    if (permission.getid() == null) {
+                        continue;
+                    }
+
+                    permissions.add(new Permission(index++,
+                            permission.getid(),
+                            getPermissionDisplayName(permission.getvalue()),
+                            permission.getuserConsentDisplayName()));
+                }
+            }
+
+            services.put(appId, new Service(appId, servicePrincipal.getdisplayName(), permissions.build()));
+        }
+
+        return new PermissionCatalog(servicePrincipals, ImmutableMap.copyOf(services));
+    }
+
+    public boolean isCreatedFrom(@NotNull List<ServicePrincipal> servicePrincipals) {
+        return source == servicePrincipals;
+    }
+
+    @NotNull
+    public Collection<Service> getServices() {
+        return services.values();
+    }
+
+    @Nullable
+    public Service getService(@NotNull String appId) {
+        return services.get(appId);
+    }
+
+    @NotNull
+    private static String getPermissionDisplayName(@Nullable String value) {
+        if (value == null) {
+            return "";
+        }
+
+        // replace '.' and '_' with space characters and title case the display name
+        return Joiner.on(' ').
+                join(Iterables.transform(
+                                Splitter.on(' ').omitEmptyStrings().split(
+                                        CharMatcher.anyOf("._").
+                                                replaceFrom(value, ' ')),
+                                new Function<String, String>() {
+                                    @Override
+                                    public String apply(String str) {
+                                        return Character.toUpperCase(str.charAt(0)) + str.substring(1);
+                                    }
+                                }
+                        )
+                );
+    }
+}
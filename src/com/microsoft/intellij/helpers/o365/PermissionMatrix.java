@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.microsoft.directoryservices.RequiredResourceAccess;
+import com.microsoft.directoryservices.ResourceAccess;
+import com.microsoft.intellij.helpers.graph.ServicePermissionEntry;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+import com.microsoft.tooling.msservices.model.Office365Permission;
+import com.microsoft.tooling.msservices.model.Office365PermissionList;
+import com.microsoft.tooling.msservices.model.Office365Service;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// a bit per cataloged permission; ones the catalog doesn't know are kept by id to survive a round trip
+public class PermissionMatrix {
+    private static final String SCOPE = "Scope";
+
+    private static class ServicePermissions {
+        private final BitSet enabled = new BitSet();
+        private final Set<String> uncataloged = new LinkedHashSet<String>();
+
+        boolean isEmpty() {
+            return enabled.isEmpty() && uncataloged.isEmpty();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ServicePermissions)) {
+                return false;
+            }
+
+            ServicePermissions other = (ServicePermissions) o;
+            return enabled.equals(other.enabled) && uncataloged.equals(other.uncataloged);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(enabled, uncataloged);
+        }
+    }
+
+    private final PermissionCatalog catalog;
+    private final Map<String, ServicePermissions> services = new LinkedHashMap<String, ServicePermissions>();
+
+    public PermissionMatrix(@NotNull PermissionCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @NotNull
+    public static PermissionMatrix fromResourceAccess(@NotNull PermissionCatalog catalog,
+                                                      @Nullable List<RequiredResourceAccess> requiredResourceAccesses,
+                                                      @NotNull Collection<String> serviceAppIds) {
+        PermissionMatrix matrix = new PermissionMatrix(catalog);
+
+        if (requiredResourceAccesses == null) {
+            return matrix;
+        }
+
+        for (RequiredResourceAccess requiredResourceAccess : requiredResourceAccesses) {
+            String appId = requiredResourceAccess.getresourceAppId();
+            if (appId == null || !serviceAppIds.contains(appId)) {
+                continue;
+            }
+
+            matrix.addService(appId);
+
+            List<ResourceAccess> resourceAccesses = requiredResourceAccess.getresourceAccess();
+            if (resourceAccesses == null) {
+                continue;
+            }
+
+            for (ResourceAccess resourceAccess : resourceAccesses) {
+                if (resourceAccess.getid() != null && SCOPE.equals(resourceAccess.gettype())) {
+                    matrix.enable(appId, resourceAccess.getid().toString());
+                }
+            }
+        }
+
+        return matrix;
+    }
+
+    // every service listed is held, even one without any permission enabled
+    @NotNull
+    public static PermissionMatrix fromEntries(@NotNull PermissionCatalog catalog,
+                                               @NotNull List<ServicePermissionEntry> entries) {
+        PermissionMatrix matrix = new PermissionMatrix(catalog);
+
+        for (ServicePermissionEntry entry : entries) {
+            String appId = entry.getKey().getId();
+            matrix.addService(appId);
+
+            for (Office365Permission permission : entry.getValue()) {
+                if (permission.isEnabled() && permission.getId() != null) {
+                    matrix.enable(appId, permission.getId());
+                }
+            }
+        }
+
+        return matrix;
+    }
+
+    @NotNull
+    public PermissionCatalog getCatalog() {
+        return catalog;
+    }
+
+    public void addService(@NotNull String appId) {
+        if (!services.containsKey(appId)) {
+            services.put(appId, new ServicePermissions());
+        }
+    }
+
+    public void enable(@NotNull String appId, @NotNull String permissionId) {
+        addService(appId);
+        ServicePermissions permissions = services.get(appId);
+
+        PermissionCatalog.Service service = catalog.getService(appId);
+        PermissionCatalog.Permission permission = service != null ? service.getPermission(permissionId) : null;
+
+        if (permission != null) {
+            permissions.enabled.set(permission.getIndex());
+        } else {
+            permissions.uncataloged.add(permissionId.toLowerCase());
+        }
+    }
+
+    @NotNull
+    public Collection<String> getServices() {
+        return services.keySet();
+    }
+
+    // a service one of the matrices doesn't hold counts as having none
+    public boolean isSameFor(@NotNull String appId, @NotNull PermissionMatrix other) {
+        ServicePermissions permissions = services.get(appId);
+        ServicePermissions otherPermissions = other.services.get(appId);
+
+        if (permissions == null || otherPermissions == null) {
+            return (permissions == null || permissions.isEmpty())
+                    && (otherPermissions == null || otherPermissions.isEmpty());
+        }
+
+        return permissions.equals(otherPermissions);
+    }
+
+    // laid out the way the permissions editor shows it
+    @NotNull
+    public List<ServicePermissionEntry> toEntries() {
+        List<ServicePermissionEntry> entries = Lists.newArrayList();
+
+        for (PermissionCatalog.Service service : catalog.getServices()) {
+            ServicePermissions permissions = services.get(service.getAppId());
+            Office365PermissionList permissionList = new Office365PermissionList(service.getPermissions().size());
+
+            for (PermissionCatalog.Permission permission : service.getPermissions()) {
+                permissionList.add(new Office365Permission(
+                        permission.getId().toString(),
+                        permission.getName(),
+                        permission.getDescription(),
+                        permissions != null && permissions.enabled.get(permission.getIndex())));
+            }
+
+            if (permissions != null) {
+                addUncataloged(permissionList, permissions);
+            }
+
+            entries.add(createEntry(service.getAppId(), service.getName(), permissionList));
+        }
+
+        for (Map.Entry<String, ServicePermissions> entry : services.entrySet()) {
+            if (catalog.getService(entry.getKey()) == null) {
+                Office365PermissionList permissionList = new Office365PermissionList();
+                addUncataloged(permissionList, entry.getValue());
+                entries.add(createEntry(entry.getKey(), null, permissionList));
+            }
+        }
+
+        return entries;
+    }
+
+    @NotNull
+    public List<ResourceAccess> toResourceAccess(@NotNull String appId) {
+        List<ResourceAccess> resourceAccesses = Lists.newArrayList();
+        ServicePermissions permissions = services.get(appId);
+
+        if (permissions == null) {
+            return resourceAccesses;
+        }
+
+        PermissionCatalog.Service service = catalog.getService(appId);
+        if (service != null) {
+            List<PermissionCatalog.Permission> cataloged = service.getPermissions();
+            for (int index = permissions.enabled.nextSetBit(0); index >= 0; index = permissions.enabled.nextSetBit(index + 1)) {
+                resourceAccesses.add(createResourceAccess(cataloged.get(index).getId()));
+            }
+        }
+
+        for (String permissionId : permissions.uncataloged) {
+            resourceAccesses.add(createResourceAccess(UUID.fromString(permissionId)));
+        }
+
+        return resourceAccesses;
+    }
+
+    private static void addUncataloged(@NotNull Office365PermissionList permissionList,
+                                       @NotNull ServicePermissions permissions) {
+        for (String permissionId : permissions.uncataloged) {
+            permissionList.add(new Office365Permission(permissionId, "", "", true));
+        }
+    }
+
+    @NotNull
+    private static ServicePermissionEntry createEntry(@NotNull String appId,
+                                                      @Nullable String name,
+                                                      @NotNull Office365PermissionList permissionList) {
+        Office365Service service = new Office365Service();
+        service.setId(appId);
+        service.setName(name);
+        return new ServicePermissionEntry(service, permissionList);
+    }
+
+    @NotNull
+    private static ResourceAccess createResourceAccess(@NotNull UUID id) {
+        ResourceAccess resourceAccess = new ResourceAccess();
+        resourceAccess.setid(id);
+        resourceAccess.settype(SCOPE);
+        return resourceAccess;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// one gzipped file of sections per tenant; past the size cap the least recently written tenants go first
+public class PersistentDirectoryCache {
+    public static final String APPLICATIONS = "applications";
+    public static final String APPLICATION_SUMMARIES = "applicationSummaries";
+    public static final String O365_SERVICE_PRINCIPALS = "o365ServicePrincipals";
+    public static final String SERVICE_PRINCIPALS = "servicePrincipals";
+    public static final String APPLICATIONS_DELTA_LINK = "applicationsDeltaLink";
+    public static final String SERVICE_PRINCIPALS_DELTA_LINK = "servicePrincipalsDeltaLink";
+
+    private static final int MAGIC = 0x4F333643;
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".cache";
+    private static final int MAX_RECORD_BYTES = 8 * 1024 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+
+    public PersistentDirectoryCache(@NotNull File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    @Nullable
+    public synchronized List<String> read(@NotNull String tenantId, @NotNull String section) {
+        return readSections(getFile(tenantId)).get(section);
+    }
+
+    public synchronized void write(@NotNull String tenantId, @NotNull String section, @NotNull List<String> records) {
+        write(tenantId, Collections.singletonMap(section, records));
+    }
+
+    // either all of the sections make it to disk or none does
+    public synchronized void write(@NotNull String tenantId, @NotNull Map<String, List<String>> updatedSections) {
+        File file = getFile(tenantId);
+        Map<String, List<String>> sections = readSections(file);
+        sections.putAll(updatedSections);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        // write to a temporary file first so that a crash never leaves a truncated cache behind
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        DataOutputStream outputStream = null;
+
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))));
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeInt(sections.size());
+
+            for (Map.Entry<String, List<String>> entry : sections.entrySet()) {
+                writeString(outputStream, entry.getKey());
+                outputStream.writeInt(entry.getValue().size());
+
+                for (String record : entry.getValue()) {
+                    writeString(outputStream, record);
+                }
+            }
+
+            outputStream.close();
+            outputStream = null;
+
+            if (tempFile.length() > maxBytes || (file.exists() && !file.delete()) || !tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+        } catch (IOException ignored) {
+            tempFile.delete();
+            return;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        trim(file);
+    }
+
+    // adds a record to a section we already hold; a section that isn't there is left for the next full write
+    public synchronized void append(@NotNull String tenantId, @NotNull String section, @NotNull String record) {
+        List<String> records = readSections(getFile(tenantId)).get(section);
+
+        if (records != null) {
+            records.add(record);
+            write(tenantId, section, records);
+        }
+    }
+
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @NotNull
+    private File getFile(@NotNull String tenantId) {
+        return new File(directory, Hashing.sha1().hashString(tenantId, Charsets.UTF_8).toString() + FILE_EXTENSION);
+    }
+
+    @NotNull
+    private Map<String, List<String>> readSections(@NotNull File file) {
+        Map<String, List<String>> sections = Maps.newLinkedHashMap();
+
+        if (!file.isFile()) {
+            return sections;
+        }
+
+        DataInputStream inputStream = null;
+
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+                return sections;
+            }
+
+            int sectionCount = inputStream.readInt();
+            for (int i = 0; i < sectionCount; i++) {
+                String name = readString(inputStream);
+                int recordCount = inputStream.readInt();
+                List<String> records = Lists.newArrayListWithCapacity(recordCount);
+
+                for (int j = 0; j < recordCount; j++) {
+                    records.add(readString(inputStream));
+                }
+
+                sections.put(name, records);
+            }
+        } catch (IOException ignored) {
+            // a damaged file is as good as no file; it gets replaced on the next write
+            sections.clear();
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        return sections;
+    }
+
+    private void trim(@NotNull File keep) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(FILE_EXTENSION);
+            }
+        });
+
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long lastModified1 = file1.lastModified();
+                long lastModified2 = file2.lastModified();
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+
+            if (!file.equals(keep)) {
+                long length = file.length();
+                if (file.delete()) {
+                    totalBytes -= length;
+                }
+            }
+        }
+    }
+
+    private static void writeString(@NotNull DataOutputStream outputStream, @NotNull String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("Invalid record length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
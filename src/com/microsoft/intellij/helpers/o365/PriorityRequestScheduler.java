@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// paced by a TokenBucket, taking requests from one bounded queue per RequestLane by weighted round robin
+public class PriorityRequestScheduler {
+    // latencies are reported over the most recent requests of each lane
+    private static final int LATENCY_WINDOW = 256;
+
+    public static class LaneStats {
+        private final int queueDepth;
+        private final long completedCount;
+        private final long rejectedCount;
+        private final long preemptedCount;
+        private final long maxWaitMillis;
+        private final long[] recentWaitMillis;
+        private final long[] recentLatencyMillis;
+
+        private LaneStats(int queueDepth, long completedCount, long rejectedCount, long preemptedCount,
+                          long maxWaitMillis, @NotNull long[] recentWaitMillis, @NotNull long[] recentLatencyMillis) {
+            this.queueDepth = queueDepth;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+            this.preemptedCount = preemptedCount;
+            this.maxWaitMillis = maxWaitMillis;
+            this.recentWaitMillis = recentWaitMillis;
+            this.recentLatencyMillis = recentLatencyMillis;
+
+            Arrays.sort(this.recentWaitMillis);
+            Arrays.sort(this.recentLatencyMillis);
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getCompletedCount() {
+            return completedCount;
+        }
+
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        public long getPreemptedCount() {
+            return preemptedCount;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        // at a percentile between 0 and 100; zero until requests have been started
+        public long getWaitMillis(double percentile) {
+            return getPercentile(recentWaitMillis, percentile);
+        }
+
+        public long getLatencyMillis(double percentile) {
+            return getPercentile(recentLatencyMillis, percentile);
+        }
+
+        private static long getPercentile(@NotNull long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+
+            int index = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    // per lane state, guarded by the scheduler
+    private static class Lane {
+        private final LinkedList<Entry<?>> queue = new LinkedList<Entry<?>>();
+        private int credit;
+
+        private long completedCount;
+        private long rejectedCount;
+        private long preemptedCount;
+        private long maxWaitNanos;
+        private final long[] recentWaitNanos = new long[LATENCY_WINDOW];
+        private final long[] recentLatencyNanos = new long[LATENCY_WINDOW];
+        private int waitCount;
+        private int latencyCount;
+    }
+
+    private class Entry<V> {
+        private final RequestLane lane;
+        private final Supplier<ListenableFuture<V>> request;
+        private final SettableFuture<V> result = SettableFuture.create();
+        private final long queuedAt = System.nanoTime();
+
+        Entry(@NotNull RequestLane lane, @NotNull Supplier<ListenableFuture<V>> request) {
+            this.lane = lane;
+            this.request = request;
+        }
+
+        void start() {
+            recordWait(lane, System.nanoTime() - queuedAt);
+
+            if (result.isCancelled()) {
+                return;
+            }
+
+            ListenableFuture<V> future;
+
+            try {
+                // requests this one makes along the way go in the same lane
+                future = lane.call(request);
+            } catch (Throwable throwable) {
+                result.setException(throwable);
+                return;
+            }
+
+            FutureHelper.propagateCancellation(result, future);
+
+            Futures.addCallback(future, new FutureCallback<V>() {
+                @Override
+                public void onSuccess(V value) {
+                    recordCompletion(lane, System.nanoTime() - queuedAt);
+                    result.set(value);
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    recordCompletion(lane, System.nanoTime() - queuedAt);
+                    result.setException(throwable);
+                }
+            });
+        }
+    }
+
+    private final TokenBucket tokenBucket;
+    private final int queueCapacity;
+
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-request-scheduler-%d").build());
+
+    // starting a request can mean waiting for a token renewal or a sign in, so it's done off the dispatcher
+    private final ExecutorService workers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-request-worker-%d").build());
+
+    private final Map<RequestLane, Lane> lanes = new EnumMap<RequestLane, Lane>(RequestLane.class);
+    private int queuedCount;
+
+    // background requests that gave up their place to more urgent ones, oldest first; they go back in line
+    // once there is room
+    private final LinkedList<Entry<?>> preempted = new LinkedList<Entry<?>>();
+    private boolean dispatching;
+
+    // waits for a token and then starts whichever request is next by the time it is available
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PriorityRequestScheduler.this) {
+                if (queuedCount == 0) {
+                    dispatching = false;
+                    return;
+                }
+            }
+
+            long waitMillis = tokenBucket.reserve(TimeUnit.MILLISECONDS);
+
+            if (waitMillis > 0) {
+                dispatcher.schedule(startNext, waitMillis, TimeUnit.MILLISECONDS);
+            } else {
+                startNext.run();
+            }
+        }
+    };
+
+    private final Runnable startNext = new Runnable() {
+        @Override
+        public void run() {
+            final Entry<?> entry;
+
+            synchronized (PriorityRequestScheduler.this) {
+                entry = poll();
+            }
+
+            try {
+                if (entry != null) {
+                    workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            entry.start();
+                        }
+                    });
+                }
+            } finally {
+                dispatcher.execute(dispatch);
+            }
+        }
+    };
+
+    public PriorityRequestScheduler(@NotNull TokenBucket tokenBucket, int queueCapacity) {
+        this.tokenBucket = tokenBucket;
+        this.queueCapacity = Math.max(1, queueCapacity);
+
+        for (RequestLane lane : RequestLane.values()) {
+            lanes.put(lane, new Lane());
+        }
+    }
+
+    @NotNull
+    public <V> ListenableFuture<V> submit(@NotNull RequestLane lane, @NotNull Supplier<ListenableFuture<V>> request) {
+        final Entry<V> entry = new Entry<V>(lane, request);
+
+        synchronized (this) {
+            boolean full = queuedCount >= queueCapacity;
+
+            if (lane == RequestLane.BACKGROUND && (full || !preempted.isEmpty())) {
+                lanes.get(lane).rejectedCount++;
+                return Futures.immediateFailedFuture(new RejectedExecutionException(
+                        "Too many pending directory requests; " + (queuedCount + preempted.size()) + " are already waiting"));
+            }
+
+            if (full) {
+                Lane background = lanes.get(RequestLane.BACKGROUND);
+
+                if (background.queue.isEmpty()) {
+                    lanes.get(lane).rejectedCount++;
+                    return Futures.immediateFailedFuture(new RejectedExecutionException(
+                            "Too many pending directory requests; " + queuedCount + " are already waiting"));
+                }
+
+                preempted.addFirst(background.queue.removeLast());
+                background.preemptedCount++;
+                queuedCount--;
+            }
+
+            lanes.get(lane).queue.add(entry);
+            queuedCount++;
+
+            if (!dispatching) {
+                dispatching = true;
+                dispatcher.execute(dispatch);
+            }
+        }
+
+        // a request cancelled while it waits gives up its place in line
+        entry.result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (entry.result.isCancelled()) {
+                    synchronized (PriorityRequestScheduler.this) {
+                        if (lanes.get(entry.lane).queue.remove(entry)) {
+                            queuedCount--;
+                            requeuePreempted();
+                        } else {
+                            preempted.remove(entry);
+                        }
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return entry.result;
+    }
+
+    // for a request that isn't queued, only if a token is free right away and nobody is waiting
+    public boolean tryAcquire() {
+        synchronized (this) {
+            if (queuedCount > 0) {
+                return false;
+            }
+        }
+
+        return tokenBucket.tryAcquire();
+    }
+
+    public void pause(long duration, @NotNull TimeUnit unit) {
+        tokenBucket.pause(duration, unit);
+    }
+
+    @NotNull
+    public synchronized LaneStats getStats(@NotNull RequestLane requestLane) {
+        Lane lane = lanes.get(requestLane);
+
+        int queueDepth = lane.queue.size() + (requestLane == RequestLane.BACKGROUND ? preempted.size() : 0);
+
+        return new LaneStats(queueDepth,
+                lane.completedCount,
+                lane.rejectedCount,
+                lane.preemptedCount,
+                TimeUnit.NANOSECONDS.toMillis(lane.maxWaitNanos),
+                toMillis(lane.recentWaitNanos, lane.waitCount),
+                toMillis(lane.recentLatencyNanos, lane.latencyCount));
+    }
+
+    // smooth weighted round robin over the lanes with requests waiting
+    private Entry<?> poll() {
+        Lane next = null;
+        int totalWeight = 0;
+
+        for (Map.Entry<RequestLane, Lane> entry : lanes.entrySet()) {
+            Lane lane = entry.getValue();
+
+            if (lane.queue.isEmpty()) {
+                lane.credit = 0;
+                continue;
+            }
+
+            lane.credit += entry.getKey().getWeight();
+            totalWeight += entry.getKey().getWeight();
+
+            if (next == null || lane.credit > next.credit) {
+                next = lane;
+            }
+        }
+
+        if (next == null) {
+            return null;
+        }
+
+        next.credit -= totalWeight;
+        queuedCount--;
+        Entry<?> entry = next.queue.poll();
+        requeuePreempted();
+        return entry;
+    }
+
+    private void requeuePreempted() {
+        Lane background = lanes.get(RequestLane.BACKGROUND);
+
+        while (queuedCount < queueCapacity && !preempted.isEmpty()) {
+            background.queue.add(preempted.removeFirst());
+            queuedCount++;
+        }
+    }
+
+    private synchronized void recordWait(@NotNull RequestLane requestLane, long waitNanos) {
+        Lane lane = lanes.get(requestLane);
+        lane.maxWaitNanos = Math.max(lane.maxWaitNanos, waitNanos);
+        lane.recentWaitNanos[lane.waitCount++ % LATENCY_WINDOW] = waitNanos;
+
+        // the count only picks the slot once the window is full; keep it from overflowing
+        if (lane.waitCount == 2 * LATENCY_WINDOW) {
+            lane.waitCount = LATENCY_WINDOW;
+        }
+    }
+
+    private synchronized void recordCompletion(@NotNull RequestLane requestLane, long latencyNanos) {
+        Lane lane = lanes.get(requestLane);
+        lane.completedCount++;
+        lane.recentLatencyNanos[lane.latencyCount++ % LATENCY_WINDOW] = latencyNanos;
+
+        if (lane.latencyCount == 2 * LATENCY_WINDOW) {
+            lane.latencyCount = LATENCY_WINDOW;
+        }
+    }
+
+    @NotNull
+    private static long[] toMillis(@NotNull long[] nanos, int count) {
+        long[] millis = new long[Math.min(count, LATENCY_WINDOW)];
+
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(nanos[i]);
+        }
+
+        return millis;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Objects;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.Map;
+
+// top level only, as the directory replaces collection valued properties as a whole
+public class PropertyDiff {
+    private static final String ANNOTATION_PREFIX = "odata.";
+
+    private PropertyDiff() {
+    }
+
+    // properties current no longer has come back as nulls so that the service clears them
+    @NotNull
+    public static JsonObject diff(@NotNull JsonObject base, @NotNull JsonObject current) {
+        JsonObject changes = new JsonObject();
+
+        for (Map.Entry<String, JsonElement> property : current.entrySet()) {
+            if (!isAnnotation(property.getKey()) && !equal(base.get(property.getKey()), property.getValue())) {
+                changes.add(property.getKey(), property.getValue());
+            }
+        }
+
+        for (Map.Entry<String, JsonElement> property : base.entrySet()) {
+            if (!isAnnotation(property.getKey()) && !current.has(property.getKey()) && !isNull(property.getValue())) {
+                changes.add(property.getKey(), JsonNull.INSTANCE);
+            }
+        }
+
+        return changes;
+    }
+
+    // whether someone else changed any of the changed properties between base and latest
+    public static boolean conflicts(@NotNull JsonObject changes, @NotNull JsonObject base, @NotNull JsonObject latest) {
+        for (Map.Entry<String, JsonElement> property : changes.entrySet()) {
+            if (!equal(base.get(property.getKey()), latest.get(property.getKey()))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isAnnotation(@NotNull String name) {
+        return name.startsWith(ANNOTATION_PREFIX);
+    }
+
+    private static boolean isNull(JsonElement element) {
+        return element == null || element.isJsonNull();
+    }
+
+    // a missing property and an explicit null mean the same thing to the service
+    private static boolean equal(JsonElement a, JsonElement b) {
+        return isNull(a) ? isNull(b) : Objects.equal(a, b);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.microsoft.intellij.helpers.graph.ServicePermissionEntry;
+import com.microsoft.tooling.msservices.model.Office365Permission;
+import com.microsoft.tooling.msservices.model.Office365PermissionList;
+import com.microsoft.tooling.msservices.model.Office365Service;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// the permissions file maps service app ids to the permission ids to grant; an empty list removes them
+public class ProvisionPermissionsStarter implements ApplicationStarter {
+    private static final String COMMAND_NAME = "o365-provision-permissions";
+
+    // nobody is waiting on a dialog here; a large batch of applications may take a while
+    private static final long DEADLINE_MINUTES = 60;
+
+    @Override
+    public String getCommandName() {
+        return COMMAND_NAME;
+    }
+
+    @Override
+    public void premain(String[] args) {
+    }
+
+    @Override
+    public void main(String[] args) {
+        // the first argument is the command name
+        if (args.length < 3) {
+            System.err.println("Usage: " + COMMAND_NAME + " <permissions.json> <application object id>...");
+            System.exit(1);
+        }
+
+        int exitCode;
+
+        try {
+            exitCode = provision(new File(args[1]), Arrays.asList(args).subList(2, args.length));
+        } catch (Throwable throwable) {
+            System.err.println("Provisioning failed: " + throwable);
+            exitCode = 1;
+        }
+
+        System.exit(exitCode);
+    }
+
+    private static int provision(File permissionsFile, final List<String> objectIds) throws Exception {
+        final Office365Manager manager = Office365ManagerImpl.getManager();
+        if (!manager.authenticated()) {
+            System.err.println("Not signed in to Office 365; sign in from the IDE first");
+            return 2;
+        }
+
+        Map<String, List<String>> permissionIds = new Gson().fromJson(Files.toString(permissionsFile, Charsets.UTF_8),
+                new TypeToken<Map<String, List<String>>>() {
+                }.getType());
+
+        final List<ServicePermissionEntry> permissionEntries = getPermissionEntries(permissionIds);
+        BulkPermissionResult result = Deadline.after(DEADLINE_MINUTES, TimeUnit.MINUTES).within(
+                new Supplier<ListenableFuture<BulkPermissionResult>>() {
+                    @Override
+                    public ListenableFuture<BulkPermissionResult> get() {
+                        return manager.setO365PermissionsForApps(objectIds, permissionEntries);
+                    }
+                }).get();
+
+        for (String objectId : result.getUpdated().keySet()) {
+            System.out.println("updated " + objectId);
+        }
+
+        for (Map.Entry<String, Throwable> failure : result.getFailed().entrySet()) {
+            System.out.println("failed " + failure.getKey() + ": " + failure.getValue());
+        }
+
+        return result.isComplete() ? 0 : 3;
+    }
+
+    private static List<ServicePermissionEntry> getPermissionEntries(Map<String, List<String>> permissionIds) {
+        List<ServicePermissionEntry> entries = Lists.newArrayList();
+
+        for (Map.Entry<String, List<String>> servicePermissions : permissionIds.entrySet()) {
+            Office365Service service = new Office365Service();
+            service.setId(servicePermissions.getKey());
+
+            Office365PermissionList permissionList = new Office365PermissionList();
+            for (String permissionId : servicePermissions.getValue()) {
+                Office365Permission permission = new Office365Permission();
+                permission.setId(permissionId);
+                permission.setEnabled(true);
+                permissionList.add(permission);
+            }
+
+            entries.add(new ServicePermissionEntry(service, permissionList));
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import javax.swing.*;
+
+// carried by the thread requests are made on; otherwise interactive on the event dispatch thread
+public enum RequestLane {
+    INTERACTIVE(16),
+    NORMAL(4),
+    BACKGROUND(1);
+
+    private static final ThreadLocal<RequestLane> current = new ThreadLocal<RequestLane>();
+
+    private final int weight;
+
+    RequestLane(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    @NotNull
+    public static RequestLane current() {
+        RequestLane lane = current.get();
+
+        if (lane != null) {
+            return lane;
+        }
+
+        return SwingUtilities.isEventDispatchThread() ? INTERACTIVE : NORMAL;
+    }
+
+    public void run(@NotNull final Runnable runnable) {
+        call(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                runnable.run();
+                return null;
+            }
+        });
+    }
+
+    public <V> V call(@NotNull Supplier<V> supplier) {
+        RequestLane previous = current.get();
+        current.set(this);
+
+        try {
+            return supplier.get();
+        } finally {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.services.odata.ODataException;
+import com.microsoft.services.odata.interfaces.Response;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+import com.microsoft.tooling.msservices.helpers.Nullable;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// retries throttled or transiently failing idempotent requests after Retry-After or an exponential backoff
+public class RetryingRequestExecutor {
+    private static final long BASE_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 30000;
+
+    // if the service wants us to go away for longer than this we'd rather report the failure
+    private static final long MAX_RETRY_AFTER_MILLIS = 120000;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int INTERNAL_SERVER_ERROR = 500;
+    private static final int BAD_GATEWAY = 502;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    private final int maxRetries;
+    private final PriorityRequestScheduler requestScheduler;
+    private final Random random = new Random();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-request-retry-%d").build());
+
+    // failures that have already used up their retries, so that an outer request doesn't retry them again
+    private final Set<Throwable> exhausted = Collections.newSetFromMap(new MapMaker().weakKeys().<Throwable, Boolean>makeMap());
+
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    public RetryingRequestExecutor(int maxRetries, @NotNull PriorityRequestScheduler requestScheduler) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.requestScheduler = requestScheduler;
+    }
+
+    @NotNull
+    public <V> ListenableFuture<V> execute(@NotNull Supplier<ListenableFuture<V>> request,
+                                           @NotNull RequestLane lane,
+                                           boolean idempotent) {
+        SettableFuture<V> result = SettableFuture.create();
+        attempt(request, lane, idempotent, 0, result);
+        return result;
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    private <V> void attempt(@NotNull final Supplier<ListenableFuture<V>> request,
+                             @NotNull final RequestLane lane,
+                             final boolean idempotent,
+                             final int attempt,
+                             @NotNull final SettableFuture<V> result) {
+        if (result.isCancelled()) {
+            return;
+        }
+
+        ListenableFuture<V> future = requestScheduler.submit(lane, request);
+
+        FutureHelper.propagateCancellation(result, future);
+
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                long delayMillis = getRetryDelay(throwable, idempotent, attempt);
+
+                if (delayMillis < 0) {
+                    result.setException(throwable);
+                    return;
+                }
+
+                retryCount.incrementAndGet();
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt(request, lane, idempotent, attempt + 1, result);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    // returns how long to wait before retrying or -1 if the request should not be retried
+    private long getRetryDelay(@NotNull Throwable throwable, boolean idempotent, int attempt) {
+        if (exhausted.contains(throwable)) {
+            return -1;
+        }
+
+        int status = getStatus(throwable);
+        boolean throttled = (status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE);
+
+        long retryAfterMillis = throttled ? getRetryAfterMillis(throwable) : -1;
+        if (throttled) {
+            throttledCount.incrementAndGet();
+
+            // everyone backs off, not just this request
+            if (retryAfterMillis > 0) {
+                requestScheduler.pause(Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        boolean transientFailure = throttled ||
+                status == INTERNAL_SERVER_ERROR ||
+                status == BAD_GATEWAY ||
+                status == GATEWAY_TIMEOUT ||
+                (status == 0 && getCause(throwable, IOException.class) != null);
+
+        if (!idempotent || !transientFailure) {
+            return -1;
+        }
+
+        if (attempt >= maxRetries || retryAfterMillis > MAX_RETRY_AFTER_MILLIS) {
+            exhausted.add(throwable);
+            return -1;
+        }
+
+        if (retryAfterMillis >= 0) {
+            return retryAfterMillis;
+        }
+
+        // half of the delay is fixed and the other half random
+        long delayMillis = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 16));
+        return delayMillis / 2 + (long) (random.nextDouble() * (delayMillis / 2));
+    }
+
+    static int getStatus(@NotNull Throwable throwable) {
+        DirectoryRequestException requestException = getCause(throwable, DirectoryRequestException.class);
+        if (requestException != null) {
+            return requestException.getStatus();
+        }
+
+        Response response = getResponse(throwable);
+        return response != null ? response.getStatus() : 0;
+    }
+
+    private static long getRetryAfterMillis(@NotNull Throwable throwable) {
+        DirectoryRequestException requestException = getCause(throwable, DirectoryRequestException.class);
+        if (requestException != null) {
+            return parseRetryAfter(requestException.getRetryAfter());
+        }
+
+        Response response = getResponse(throwable);
+        return response != null ? parseRetryAfter(getHeader(response, "Retry-After")) : -1;
+    }
+
+    // header names are case insensitive, but the responses of the OData library look them up as given
+    @Nullable
+    static String getHeader(@NotNull Response response, @NotNull String name) {
+        Map<String, List<String>> headers = response.getHeaders();
+
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() == null || !header.getKey().equalsIgnoreCase(name) || header.getValue() == null) {
+                    continue;
+                }
+
+                for (String value : header.getValue()) {
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date
+    private static long parseRetryAfter(@Nullable String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        value = value.trim();
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException ignored) {
+        }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException ignored) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private static Response getResponse(@NotNull Throwable throwable) {
+        ODataException oDataException = getCause(throwable, ODataException.class);
+
+        if (oDataException == null || oDataException.getODataResponse() == null) {
+            return null;
+        }
+
+        return oDataException.getODataResponse().getResponse();
+    }
+
+    @Nullable
+    private static <T extends Throwable> T getCause(@NotNull Throwable throwable, @NotNull Class<T> clazz) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (clazz.isInstance(cause)) {
+                return clazz.cast(cause);
+            }
+
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+
+        return null;
+    }
+}
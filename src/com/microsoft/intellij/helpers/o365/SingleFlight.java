@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// the shared request is only cancelled once every caller waiting on it has cancelled
+public class SingleFlight<K, V> {
+    private static class Flight<V> {
+        private final SettableFuture<V> leader = SettableFuture.create();
+        private volatile ListenableFuture<V> request;
+        private int callers = 1;
+
+        synchronized boolean join() {
+            if (callers == 0) {
+                return false;
+            }
+
+            callers++;
+            return true;
+        }
+
+        synchronized boolean leave() {
+            return --callers == 0;
+        }
+    }
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = Maps.newConcurrentMap();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @NotNull
+    public ListenableFuture<V> get(@NotNull final K key, @NotNull Supplier<ListenableFuture<V>> request) {
+        calls.incrementAndGet();
+
+        while (true) {
+            Flight<V> flight = inFlight.get(key);
+
+            if (flight == null) {
+                Flight<V> created = new Flight<V>();
+                flight = inFlight.putIfAbsent(key, created);
+
+                if (flight == null) {
+                    start(key, created, request);
+                    return follow(key, created);
+                }
+            }
+
+            if (flight.join()) {
+                coalesced.incrementAndGet();
+                return follow(key, flight);
+            }
+
+            // everyone waiting on this one has given up on it and it is being cancelled; start over
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private void start(@NotNull final K key,
+                       @NotNull final Flight<V> flight,
+                       @NotNull Supplier<ListenableFuture<V>> request) {
+        ListenableFuture<V> future;
+
+        try {
+            future = request.get();
+        } catch (Throwable throwable) {
+            inFlight.remove(key, flight);
+            flight.leader.setException(throwable);
+            return;
+        }
+
+        flight.request = future;
+
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                // forget the key first so that nobody joins a request that has already completed
+                inFlight.remove(key, flight);
+                flight.leader.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                inFlight.remove(key, flight);
+                flight.leader.setException(throwable);
+            }
+        });
+    }
+
+    @NotNull
+    private ListenableFuture<V> follow(@NotNull final K key, @NotNull final Flight<V> flight) {
+        final SettableFuture<V> result = SettableFuture.create();
+        FutureHelper.forward(flight.leader, result);
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled() && flight.leave()) {
+                    inFlight.remove(key, flight);
+
+                    ListenableFuture<V> request = flight.request;
+                    if (request != null) {
+                        request.cancel(true);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import java.util.concurrent.TimeUnit;
+
+// hands out reservations instead of blocking; the caller schedules its request for when its token is due
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        if (tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("The token bucket needs a positive rate and capacity");
+        }
+
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    public synchronized long reserve(TimeUnit unit) {
+        long now = System.nanoTime();
+        refill(now);
+
+        tokens -= 1;
+
+        long waitNanos = Math.max(0, pausedUntil - now);
+        if (tokens < 0) {
+            waitNanos = Math.max(waitNanos, (long) Math.ceil(-tokens / tokensPerNano));
+        }
+
+        return unit.convert(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // for requests better not sent at all than sent late
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        refill(now);
+
+        if (tokens < 1 || pausedUntil - now > 0) {
+            return false;
+        }
+
+        tokens -= 1;
+        return true;
+    }
+
+    // used when the service tells us to back off
+    public synchronized void pause(long duration, TimeUnit unit) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + unit.toNanos(duration));
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.helpers.o365;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Disposer;
+import com.microsoft.tooling.msservices.components.DefaultLoader;
+import com.microsoft.tooling.msservices.helpers.NotNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// quick successive updates are coalesced; a value still pending is written when the application is disposed
+public class WriteBehindProperty {
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("o365-property-writer-%d").build());
+
+    private final String name;
+    private final long delayMillis;
+
+    // a flush takes the pending value and writes it as one step so that an older value is never written
+    // over a newer one
+    private final Object writeLock = new Object();
+
+    private String pendingValue;
+    private boolean scheduled;
+
+    public WriteBehindProperty(@NotNull String name, long delay, @NotNull TimeUnit unit) {
+        this.name = name;
+        this.delayMillis = unit.toMillis(delay);
+
+        Disposer.register(ApplicationManager.getApplication(), new Disposable() {
+            @Override
+            public void dispose() {
+                flush();
+            }
+        });
+    }
+
+    public synchronized void set(@NotNull String value) {
+        pendingValue = value;
+
+        if (!scheduled) {
+            scheduled = true;
+
+            writer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void flush() {
+        synchronized (writeLock) {
+            String value;
+
+            synchronized (this) {
+                if (!scheduled) {
+                    return;
+                }
+
+                value = pendingValue;
+                scheduled = false;
+            }
+
+            DefaultLoader.getIdeHelper().setProperty(name, value);
+        }
+    }
+}